@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+
+/**
+ * Maps the codec names used as benchmark parameters to the constants in {@link CompressionCodecs}.
+ *
+ * @since 0.3.2
+ */
+public class Codecs {
+
+  public static final String[] NAMES = {"NONE", "GZIP", "DEFLATE_FAST", "DEFLATE", "DEFLATE_BEST"};
+
+  private Codecs() {
+  }
+
+  public static CompressionCodec named(String name) {
+    if ("NONE".equals(name)) {
+      return CompressionCodecs.NONE;
+    }
+    if ("GZIP".equals(name)) {
+      return CompressionCodecs.GZIP;
+    }
+    if ("DEFLATE_FAST".equals(name)) {
+      return CompressionCodecs.DEFLATE_FAST;
+    }
+    if ("DEFLATE".equals(name)) {
+      return CompressionCodecs.DEFLATE;
+    }
+    if ("DEFLATE_BEST".equals(name)) {
+      return CompressionCodecs.DEFLATE_BEST;
+    }
+    throw new IllegalArgumentException("Unknown compression codec: " + name);
+  }
+}
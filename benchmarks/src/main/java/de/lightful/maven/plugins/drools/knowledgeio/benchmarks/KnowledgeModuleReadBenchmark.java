@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReader;
+import org.drools.definition.KnowledgePackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read paths of {@link KnowledgeModuleReader} for synthetic modules, per compression codec: reading a
+ * whole module from a stream or a memory-mapped file, reading it with section deserialization spread over a thread
+ * pool, reading a single package, and iterating. Run with {@code -prof gc} to see the allocation rate alongside
+ * throughput and latency percentiles.
+ *
+ * @since 0.3.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KnowledgeModuleReadBenchmark {
+
+  @Param({"4"})
+  public int packages;
+
+  @Param({"10", "100"})
+  public int rulesPerPackage;
+
+  @Param({"2"})
+  public int typeDeclarationsPerPackage;
+
+  @Param({"5"})
+  public int consequenceStatements;
+
+  @Param({"NONE", "GZIP", "DEFLATE_FAST", "DEFLATE", "DEFLATE_BEST"})
+  public String codec;
+
+  @Param({"4"})
+  public int threads;
+
+  private final KnowledgeIoFactory factory = new KnowledgeIoFactory();
+  private final ClassLoader classLoader = getClass().getClassLoader();
+  private byte[] moduleBytes;
+  private File moduleFile;
+  private Set<String> lastPackageOnly;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws IOException {
+    final SyntheticModule syntheticModule = new SyntheticModule(packages, rulesPerPackage, typeDeclarationsPerPackage, consequenceStatements);
+    final Collection<KnowledgePackage> knowledgePackages = syntheticModule.compile();
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    factory.createKnowledgeModuleWriter(outputStream, Codecs.named(codec)).writeKnowledgePackages(knowledgePackages);
+    moduleBytes = outputStream.toByteArray();
+
+    moduleFile = File.createTempFile("benchmark", ".dkm");
+    final FileOutputStream fileOutputStream = new FileOutputStream(moduleFile);
+    try {
+      fileOutputStream.write(moduleBytes);
+    }
+    finally {
+      fileOutputStream.close();
+    }
+
+    lastPackageOnly = Collections.singleton(SyntheticModule.packageName(packages - 1));
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+    moduleFile.delete();
+  }
+
+  @Benchmark
+  public Collection<KnowledgePackage> readFromStream() throws IOException, ClassNotFoundException {
+    return factory.createKnowledgeModuleReader(new ByteArrayInputStream(moduleBytes), classLoader).readKnowledgePackages();
+  }
+
+  @Benchmark
+  public Collection<KnowledgePackage> readFromMappedFile() throws IOException, ClassNotFoundException {
+    return factory.createKnowledgeModuleReader(moduleFile, classLoader).readKnowledgePackages();
+  }
+
+  @Benchmark
+  public Collection<KnowledgePackage> readConcurrently() throws IOException, ClassNotFoundException {
+    return factory.createKnowledgeModuleReader(new ByteArrayInputStream(moduleBytes), classLoader, executor).readKnowledgePackages();
+  }
+
+  @Benchmark
+  public Collection<KnowledgePackage> readSinglePackage() throws IOException, ClassNotFoundException {
+    return factory.createKnowledgeModuleReader(new ByteArrayInputStream(moduleBytes), classLoader).readKnowledgePackages(lastPackageOnly);
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) throws IOException, ClassNotFoundException {
+    final KnowledgeModuleReader reader = factory.createKnowledgeModuleReader(new ByteArrayInputStream(moduleBytes), classLoader);
+    final Iterator<KnowledgePackage> iterator = reader.iterateKnowledgePackages();
+    while (iterator.hasNext()) {
+      blackhole.consume(iterator.next());
+    }
+  }
+}
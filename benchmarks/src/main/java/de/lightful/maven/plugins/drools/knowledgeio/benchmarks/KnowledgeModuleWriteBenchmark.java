@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleWriter;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+import org.drools.definition.KnowledgePackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link KnowledgeModuleWriter#writeKnowledgePackages(Iterable)} for synthetic modules, per compression codec.
+ * Run with {@code -prof gc} to see the allocation rate alongside throughput and latency percentiles.
+ *
+ * @since 0.3.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KnowledgeModuleWriteBenchmark {
+
+  @Param({"4"})
+  public int packages;
+
+  @Param({"10", "100"})
+  public int rulesPerPackage;
+
+  @Param({"2"})
+  public int typeDeclarationsPerPackage;
+
+  @Param({"5"})
+  public int consequenceStatements;
+
+  @Param({"NONE", "GZIP", "DEFLATE_FAST", "DEFLATE", "DEFLATE_BEST"})
+  public String codec;
+
+  @Param({"4"})
+  public int threads;
+
+  private final KnowledgeIoFactory factory = new KnowledgeIoFactory();
+  private Collection<KnowledgePackage> knowledgePackages;
+  private int expectedModuleSize;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() throws IOException {
+    knowledgePackages = new SyntheticModule(packages, rulesPerPackage, typeDeclarationsPerPackage, consequenceStatements).compile();
+    expectedModuleSize = write().size();
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream writeKnowledgePackages() throws IOException {
+    return write();
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream writeConcurrently() throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(expectedModuleSize);
+    final KnowledgeModuleWriter writer = factory.createKnowledgeModuleWriter(outputStream, Codecs.named(codec), PackageSerializers.JAVA, executor);
+    writer.writeKnowledgePackages(knowledgePackages);
+    return outputStream;
+  }
+
+  private ByteArrayOutputStream write() throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(expectedModuleSize);
+    final KnowledgeModuleWriter writer = factory.createKnowledgeModuleWriter(outputStream, Codecs.named(codec));
+    writer.writeKnowledgePackages(knowledgePackages);
+    return outputStream;
+  }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Prints the encoded size of a synthetic module for each compression codec, as a companion to the throughput
+ * numbers of {@link KnowledgeModuleWriteBenchmark} and {@link KnowledgeModuleReadBenchmark}.
+ * <p/>
+ * Arguments (all optional): packages, rules per package, type declarations per package, consequence statements.
+ *
+ * @since 0.3.2
+ */
+public class ModuleSizes {
+
+  public static void main(String[] args) throws IOException {
+    final SyntheticModule syntheticModule = new SyntheticModule(
+        intArgument(args, 0, 4), intArgument(args, 1, 100), intArgument(args, 2, 2), intArgument(args, 3, 5));
+    final Collection<KnowledgePackage> knowledgePackages = syntheticModule.compile();
+    final KnowledgeIoFactory factory = new KnowledgeIoFactory();
+
+    System.out.println("Module: " + syntheticModule);
+    for (String codec : Codecs.NAMES) {
+      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      factory.createKnowledgeModuleWriter(outputStream, Codecs.named(codec)).writeKnowledgePackages(knowledgePackages);
+      System.out.println(String.format("%-14s %12d bytes", codec, outputStream.size()));
+    }
+  }
+
+  private static int intArgument(String[] args, int index, int defaultValue) {
+    return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+  }
+}
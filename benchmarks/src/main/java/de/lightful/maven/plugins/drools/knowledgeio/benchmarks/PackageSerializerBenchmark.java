@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.definition.KnowledgePackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of a single synthetic package, including compression, per package serializer.
+ * <code>STREAM_UTILS</code> is the path used before package serializers were introduced: {@link DroolsStreamUtils}
+ * reading straight from the decompressing stream.
+ *
+ * @since 0.3.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackageSerializerBenchmark {
+
+  @Param({"10", "100"})
+  public int rulesPerPackage;
+
+  @Param({"2"})
+  public int typeDeclarationsPerPackage;
+
+  @Param({"5"})
+  public int consequenceStatements;
+
+  @Param({"NONE", "DEFLATE"})
+  public String codec;
+
+  @Param({"STREAM_UTILS", "JAVA"})
+  public String serializer;
+
+  private final ClassLoader classLoader = getClass().getClassLoader();
+  private CompressionCodec compressionCodec;
+  private PackageSerializer packageSerializer;
+  private KnowledgePackage knowledgePackage;
+  private byte[] sectionData;
+
+  @Setup
+  public void setUp() throws IOException {
+    final SyntheticModule syntheticModule = new SyntheticModule(1, rulesPerPackage, typeDeclarationsPerPackage, consequenceStatements);
+    knowledgePackage = syntheticModule.compile().iterator().next();
+    compressionCodec = Codecs.named(codec);
+    packageSerializer = "STREAM_UTILS".equals(serializer) ? new StreamUtilsSerializer() : PackageSerializers.JAVA;
+    sectionData = serialize();
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    final ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream();
+    final OutputStream compressedData = compressionCodec.compress(sectionBuffer);
+    try {
+      packageSerializer.serialize(knowledgePackage, compressedData);
+    }
+    finally {
+      compressedData.close();
+    }
+    return sectionBuffer.toByteArray();
+  }
+
+  @Benchmark
+  public Object deserialize() throws IOException, ClassNotFoundException {
+    final InputStream decompressedData = compressionCodec.decompress(new ByteArrayInputStream(sectionData));
+    try {
+      return packageSerializer.deserialize(decompressedData, classLoader);
+    }
+    finally {
+      decompressedData.close();
+    }
+  }
+
+  private static class StreamUtilsSerializer implements PackageSerializer {
+
+    public byte getId() {
+      return PackageSerializers.JAVA_ID;
+    }
+
+    public void serialize(KnowledgePackage knowledgePackage, OutputStream outputStream) throws IOException {
+      DroolsStreamUtils.streamOut(outputStream, knowledgePackage, false);
+    }
+
+    public Object deserialize(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+      return DroolsStreamUtils.streamIn(inputStream, classLoader, false);
+    }
+  }
+}
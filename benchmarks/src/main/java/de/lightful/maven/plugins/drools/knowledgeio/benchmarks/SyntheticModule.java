@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.benchmarks;
+
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Generates and compiles DRL for a synthetic knowledge module of configurable size, so that benchmarks can
+ * measure the library against modules closer to production size than the few rules used by the unit tests.
+ *
+ * @since 0.3.2
+ */
+public class SyntheticModule {
+
+  private final int packageCount;
+  private final int rulesPerPackage;
+  private final int typeDeclarationsPerPackage;
+  private final int consequenceStatements;
+
+  /**
+   * @param packageCount number of knowledge packages in the module.
+   * @param rulesPerPackage number of rules generated into each package.
+   * @param typeDeclarationsPerPackage number of declared fact types in each package; rules match on them round-robin.
+   * @param consequenceStatements number of statements in each rule consequence, which drives the size of generated code.
+   */
+  public SyntheticModule(int packageCount, int rulesPerPackage, int typeDeclarationsPerPackage, int consequenceStatements) {
+    this.packageCount = packageCount;
+    this.rulesPerPackage = rulesPerPackage;
+    this.typeDeclarationsPerPackage = typeDeclarationsPerPackage;
+    this.consequenceStatements = consequenceStatements;
+  }
+
+  public static String packageName(int packageIndex) {
+    return "org.example.synthetic.p" + packageIndex;
+  }
+
+  public List<String> packageNames() {
+    final List<String> packageNames = new ArrayList<String>(packageCount);
+    for (int i = 0; i < packageCount; i++) {
+      packageNames.add(packageName(i));
+    }
+    return packageNames;
+  }
+
+  public Collection<KnowledgePackage> compile() {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    for (int i = 0; i < packageCount; i++) {
+      knowledgeBuilder.add(ResourceFactory.newByteArrayResource(generateDrl(i).getBytes()), ResourceType.DRL);
+    }
+    if (knowledgeBuilder.hasErrors()) {
+      throw new IllegalStateException("Synthetic DRL does not compile: " + knowledgeBuilder.getErrors());
+    }
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+
+  String generateDrl(int packageIndex) {
+    final StringBuilder drl = new StringBuilder();
+    drl.append("package ").append(packageName(packageIndex)).append(";\n");
+    drl.append("dialect \"java\"\n\n");
+
+    for (int t = 0; t < typeDeclarationsPerPackage; t++) {
+      drl.append("declare Fact").append(t).append('\n');
+      drl.append("  id : int\n");
+      drl.append("  name : String\n");
+      drl.append("  amount : double\n");
+      drl.append("end\n\n");
+    }
+
+    for (int r = 0; r < rulesPerPackage; r++) {
+      drl.append("rule \"rule").append(r).append("\"\n");
+      drl.append("  when\n");
+      if (typeDeclarationsPerPackage > 0) {
+        drl.append("    $f : Fact").append(r % typeDeclarationsPerPackage).append("( id > ").append(r).append(" )\n");
+      }
+      drl.append("  then\n");
+      for (int s = 0; s < consequenceStatements; s++) {
+        drl.append("    System.out.println(\"rule").append(r).append(" statement ").append(s).append("\");\n");
+      }
+      drl.append("end\n\n");
+    }
+    return drl.toString();
+  }
+
+  @Override
+  public String toString() {
+    return packageCount + " packages x " + rulesPerPackage + " rules, " + typeDeclarationsPerPackage + " type declarations, "
+           + consequenceStatements + " consequence statements";
+  }
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * Thrown when data of a knowledge module does not match the checksum recorded for it, e.g. because the module file
+ * was truncated or corrupted on disk.
+ *
+ * @since 0.3.2
+ */
+public class ChecksumMismatchException extends IllegalFileFormatException {
+
+  public ChecksumMismatchException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public ChecksumMismatchException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses the knowledge package sections of a knowledge module. The id of the codec used for writing
+ * is recorded in the module header; readers resolve it via {@link CompressionCodecs#forId(byte)}.
+ *
+ * @since 0.3.2
+ * @see CompressionCodecs
+ */
+public interface CompressionCodec {
+
+  /**
+   * Identifies the encoding in the module header. Codecs which produce the same encoding
+   * (e.g. Deflate with different levels) share the same id.
+   */
+  byte getId();
+
+  /**
+   * Wraps <code>outputStream</code> so that data written to the result is compressed. Closing the result must
+   * write all pending data and release any native resources, and also closes <code>outputStream</code>.
+   */
+  OutputStream compress(OutputStream outputStream) throws IOException;
+
+  /**
+   * Wraps <code>inputStream</code> so that data read from the result is decompressed. Closing the result must
+   * release any native resources, and also closes <code>inputStream</code>.
+   */
+  InputStream decompress(InputStream inputStream) throws IOException;
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Built-in {@link CompressionCodec}s, all based on the compression support of the JDK.
+ *
+ * @since 0.3.2
+ */
+public class CompressionCodecs {
+
+  public static final byte NONE_ID = 0;
+  public static final byte GZIP_ID = 1;
+  public static final byte DEFLATE_ID = 2;
+
+  /**
+   * Stores sections uncompressed. Fastest to load, largest on disk; use for local caches.
+   */
+  public static final CompressionCodec NONE = new NoCompression();
+
+  /**
+   * GZIP with default level, as written by {@link org.drools.core.util.DroolsStreamUtils}.
+   * Implied for modules written before compression codecs were recorded in the header.
+   */
+  public static final CompressionCodec GZIP = new GzipCompression();
+
+  /**
+   * Deflate (zlib format) with default level. Same compression as {@link #GZIP}, but verified
+   * with the cheaper Adler-32 checksum instead of CRC-32.
+   */
+  public static final CompressionCodec DEFLATE = deflate(Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * Deflate with the fastest compression level: faster to write, somewhat larger than {@link #DEFLATE}.
+   */
+  public static final CompressionCodec DEFLATE_FAST = deflate(Deflater.BEST_SPEED);
+
+  /**
+   * Deflate with the best compression level: slowest to write, smallest on disk; use for artifact storage.
+   */
+  public static final CompressionCodec DEFLATE_BEST = deflate(Deflater.BEST_COMPRESSION);
+
+  private CompressionCodecs() {
+  }
+
+  /**
+   * @param level 0-9, or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  public static CompressionCodec deflate(int level) {
+    if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+      throw new IllegalArgumentException("Illegal deflate compression level: " + level);
+    }
+    return new DeflateCompression(level);
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no built-in codec with the given id.
+   */
+  public static CompressionCodec forId(byte id) {
+    switch (id) {
+      case NONE_ID:
+        return NONE;
+      case GZIP_ID:
+        return GZIP;
+      case DEFLATE_ID:
+        return DEFLATE;
+      default:
+        throw new IllegalArgumentException("Unknown compression codec id: " + id);
+    }
+  }
+
+  private static class NoCompression implements CompressionCodec {
+
+    public byte getId() {
+      return NONE_ID;
+    }
+
+    public OutputStream compress(OutputStream outputStream) {
+      return outputStream;
+    }
+
+    public InputStream decompress(InputStream inputStream) {
+      return inputStream;
+    }
+
+    @Override
+    public String toString() {
+      return "NONE";
+    }
+  }
+
+  private static class GzipCompression implements CompressionCodec {
+
+    public byte getId() {
+      return GZIP_ID;
+    }
+
+    public OutputStream compress(OutputStream outputStream) throws IOException {
+      return new GZIPOutputStream(outputStream);
+    }
+
+    public InputStream decompress(InputStream inputStream) throws IOException {
+      return new GZIPInputStream(inputStream);
+    }
+
+    @Override
+    public String toString() {
+      return "GZIP";
+    }
+  }
+
+  private static class DeflateCompression implements CompressionCodec {
+
+    private final int level;
+
+    private DeflateCompression(int level) {
+      this.level = level;
+    }
+
+    public byte getId() {
+      return DEFLATE_ID;
+    }
+
+    public OutputStream compress(OutputStream outputStream) {
+      final Deflater deflater = new Deflater(level);
+      return new DeflaterOutputStream(outputStream, deflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          }
+          finally {
+            deflater.end();
+          }
+        }
+      };
+    }
+
+    public InputStream decompress(InputStream inputStream) {
+      final Inflater inflater = new Inflater();
+      return new InflaterInputStream(inputStream, inflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          }
+          finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      return "DEFLATE(" + level + ")";
+    }
+  }
+}
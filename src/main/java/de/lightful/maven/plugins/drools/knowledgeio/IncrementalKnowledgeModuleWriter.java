@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.IOException;
+
+/**
+ * Writes a knowledge module one package at a time, for producers which cannot or do not want to hold all packages
+ * at once, e.g. builds compiling many DRL files one after the other. Each package is serialized, compressed and
+ * handed to the output stream as a section of its own before {@link #writePackage(KnowledgePackage)} returns, so the
+ * caller may drop it right away; only the package's name and counts are kept for the section index.
+ * <p/>
+ * Modules are written as <code>begin()</code>, any number of <code>writePackage()</code> calls, <code>finish()</code>.
+ * The output stream is flushed, but not closed. If any call fails, the module is incomplete and must be discarded.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createIncrementalKnowledgeModuleWriter(java.io.OutputStream)
+ */
+public interface IncrementalKnowledgeModuleWriter {
+
+  /**
+   * Writes the module header.
+   *
+   * @throws IllegalStateException if a module has been begun, but not finished.
+   */
+  void begin() throws IOException;
+
+  /**
+   * Writes one package as a section of the module.
+   *
+   * @throws IllegalStateException if no module has been begun.
+   */
+  void writePackage(KnowledgePackage knowledgePackage) throws IOException;
+
+  /**
+   * Writes the end of the module: the end-of-sections marker, the section index and the trailer.
+   *
+   * @throws IllegalStateException if no module has been begun.
+   */
+  void finish() throws IOException;
+}
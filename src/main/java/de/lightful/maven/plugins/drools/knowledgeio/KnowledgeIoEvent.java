@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * One completed phase of reading or writing a knowledge module.
+ * <p/>
+ * Timestamps are taken from {@link System#nanoTime()}. Phases which are interleaved with each other, like
+ * {@link KnowledgeIoPhase#INFLATE} and {@link KnowledgeIoPhase#DESERIALIZE}, report the accumulated time spent in the
+ * phase as <code>endNanos - startNanos</code>, starting at the beginning of the enclosing operation.
+ *
+ * @since 0.3.2
+ */
+public class KnowledgeIoEvent {
+
+  /**
+   * Byte count or package count not known for a phase.
+   */
+  public static final long UNKNOWN = -1;
+
+  private final KnowledgeIoPhase phase;
+  private final String packageName;
+  private final long startNanos;
+  private final long endNanos;
+  private final long compressedBytes;
+  private final long uncompressedBytes;
+  private final int packageCount;
+
+  public KnowledgeIoEvent(KnowledgeIoPhase phase, String packageName, long startNanos, long endNanos,
+                          long compressedBytes, long uncompressedBytes, int packageCount) {
+    this.phase = phase;
+    this.packageName = packageName;
+    this.startNanos = startNanos;
+    this.endNanos = endNanos;
+    this.compressedBytes = compressedBytes;
+    this.uncompressedBytes = uncompressedBytes;
+    this.packageCount = packageCount;
+  }
+
+  public KnowledgeIoPhase getPhase() {
+    return phase;
+  }
+
+  /**
+   * @return name of the package the phase worked on, or <code>null</code> for phases concerning the whole module.
+   */
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getEndNanos() {
+    return endNanos;
+  }
+
+  public long getDurationNanos() {
+    return endNanos - startNanos;
+  }
+
+  /**
+   * @return bytes as stored in the module, or {@link #UNKNOWN}.
+   */
+  public long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  /**
+   * @return bytes of serialized package data before compression, or {@link #UNKNOWN}.
+   */
+  public long getUncompressedBytes() {
+    return uncompressedBytes;
+  }
+
+  /**
+   * @return number of knowledge packages the phase worked on.
+   */
+  public int getPackageCount() {
+    return packageCount;
+  }
+
+  @Override
+  public String toString() {
+    return phase + (packageName == null ? "" : " '" + packageName + "'") + ": " + getDurationNanos() + "ns, "
+           + compressedBytes + " bytes compressed, " + uncompressedBytes + " bytes uncompressed, " + packageCount + " packages";
+  }
+}
@@ -18,19 +18,352 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio;
 
+import de.lightful.maven.plugins.drools.knowledgeio.internal.AppendingKnowledgeModuleWriterImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.FileKnowledgeModuleWriterImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeIoListeners;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleBatchLoaderImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleCacheImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleLoaderImpl;
 import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleReaderImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleToolsImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleWatcherImpl;
 import de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleWriterImpl;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.ModuleDigests;
+import de.lightful.maven.plugins.drools.knowledgeio.internal.PackageSerializerRegistry;
+import org.drools.definition.KnowledgePackage;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class KnowledgeIoFactory {
 
+  private final KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private final PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+
+  /**
+   * Registers <code>listener</code> for all readers, writers and caches created by this factory,
+   * including those created before the listener was added.
+   *
+   * @since 0.3.2
+   */
+  public void addKnowledgeIoListener(KnowledgeIoListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * @since 0.3.2
+   */
+  public void removeKnowledgeIoListener(KnowledgeIoListener listener) {
+    listeners.remove(listener);
+  }
+
   public KnowledgeModuleReader createKnowledgeModuleReader(InputStream inputStream, ClassLoader classLoader) {
-    return new KnowledgeModuleReaderImpl(inputStream, classLoader);
+    return configured(new KnowledgeModuleReaderImpl(inputStream, classLoader));
+  }
+
+  /**
+   * Creates a reader which deserializes the knowledge packages of indexed modules concurrently on <code>executor</code>,
+   * while the calling thread keeps reading sections from <code>inputStream</code>. Packages are returned in module order.
+   * Incremental reads via {@link KnowledgeModuleReader#iterateKnowledgePackages()} stay on the calling thread.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleReader createKnowledgeModuleReader(InputStream inputStream, ClassLoader classLoader, Executor executor) {
+    return configured(new KnowledgeModuleReaderImpl(inputStream, classLoader, executor));
+  }
+
+  /**
+   * Creates a reader which maps <code>moduleFile</code> into memory and parses it from the mapped region.
+   * The file is mapped, and its channel closed again, before this method returns. The mapping is released only once
+   * the reader is garbage collected: until then, the file cannot be deleted or replaced on Windows, and truncating it
+   * in place makes reads fail with an {@link InternalError}. Read files which change while in use from an input stream,
+   * or through a {@link KnowledgeModuleCache} or {@link KnowledgeModuleWatcher}.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleReader createKnowledgeModuleReader(File moduleFile, ClassLoader classLoader) throws IOException {
+    return configured(new KnowledgeModuleReaderImpl(moduleFile, classLoader, null));
+  }
+
+  /**
+   * @since 0.3.2
+   * @see #createKnowledgeModuleReader(File, ClassLoader)
+   * @see #createKnowledgeModuleReader(InputStream, ClassLoader, Executor)
+   */
+  public KnowledgeModuleReader createKnowledgeModuleReader(File moduleFile, ClassLoader classLoader, Executor executor) throws IOException {
+    return configured(new KnowledgeModuleReaderImpl(moduleFile, classLoader, executor));
+  }
+
+  /**
+   * Maps <code>moduleFile</code> into memory and reads its knowledge packages on a shared default executor.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readKnowledgePackagesAsync(Executor)
+   */
+  public Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(File moduleFile, ClassLoader classLoader) throws IOException {
+    return readKnowledgePackagesAsync(moduleFile, classLoader, null);
+  }
+
+  /**
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readKnowledgePackagesAsync(Executor)
+   */
+  public Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(File moduleFile, ClassLoader classLoader, Executor executor) throws IOException {
+    return createKnowledgeModuleReader(moduleFile, classLoader).readKnowledgePackagesAsync(executor);
+  }
+
+  /**
+   * Describes the module read from <code>inputStream</code>, skipping over all package data.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readManifest()
+   */
+  public KnowledgeModuleManifest probe(InputStream inputStream) throws IOException {
+    return createKnowledgeModuleReader(inputStream, getClass().getClassLoader()).readManifest();
+  }
+
+  /**
+   * Describes the module stored in <code>moduleFile</code>, mapping the file into memory.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readManifest()
+   */
+  public KnowledgeModuleManifest probe(File moduleFile) throws IOException {
+    return createKnowledgeModuleReader(moduleFile, getClass().getClassLoader()).readManifest();
+  }
+
+  /**
+   * Computes the digest identifying the module stored in <code>moduleFile</code> as base of delta modules.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleWriter#writeDelta(byte[], Iterable, java.util.Set)
+   */
+  public byte[] digest(File moduleFile) throws IOException {
+    return ModuleDigests.digest(moduleFile);
+  }
+
+  /**
+   * @since 0.3.2
+   * @see #digest(File)
+   */
+  public byte[] digest(InputStream inputStream) throws IOException {
+    return ModuleDigests.digest(inputStream);
+  }
+
+  /**
+   * Makes modules written with <code>packageSerializer</code> readable by all readers, loaders and caches created by
+   * this factory, including those created before the serializer was registered. Built-in serializers of
+   * {@link PackageSerializers} need not be registered.
+   *
+   * @throws IllegalArgumentException if the serializer's id is reserved for built-in serializers or already taken.
+   * @since 0.3.2
+   */
+  public void registerPackageSerializer(PackageSerializer packageSerializer) {
+    packageSerializers.register(packageSerializer);
   }
 
   public KnowledgeModuleWriter createKnowledgeModuleWriter(OutputStream outputStream) {
-    return new KnowledgeModuleWriterImpl(outputStream);
+    return configured(new KnowledgeModuleWriterImpl(outputStream));
+  }
+
+  /**
+   * Creates a writer which compresses knowledge package sections with <code>compressionCodec</code>,
+   * e.g. {@link CompressionCodecs#NONE} for local fast-start caches or {@link CompressionCodecs#DEFLATE_BEST}
+   * for artifact storage. Writers created by {@link #createKnowledgeModuleWriter(OutputStream)}
+   * use {@link CompressionCodecs#DEFLATE}.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleWriter createKnowledgeModuleWriter(OutputStream outputStream, CompressionCodec compressionCodec) {
+    return configured(new KnowledgeModuleWriterImpl(outputStream, compressionCodec));
+  }
+
+  /**
+   * Creates a writer which encodes knowledge packages with <code>packageSerializer</code> before compressing them.
+   * Writers created by the other methods use {@link PackageSerializers#JAVA}.
+   *
+   * @since 0.3.2
+   * @see #registerPackageSerializer(PackageSerializer)
+   */
+  public KnowledgeModuleWriter createKnowledgeModuleWriter(OutputStream outputStream, CompressionCodec compressionCodec, PackageSerializer packageSerializer) {
+    return configured(new KnowledgeModuleWriterImpl(outputStream, compressionCodec, packageSerializer));
+  }
+
+  /**
+   * Creates a writer which serializes and compresses the packages passed to one call concurrently on
+   * <code>executor</code>. Sections are written in package order, so the module written does not depend on which
+   * package finishes first.
+   *
+   * @since 0.3.2
+   * @see #createKnowledgeModuleWriter(OutputStream, CompressionCodec, PackageSerializer)
+   */
+  public KnowledgeModuleWriter createKnowledgeModuleWriter(OutputStream outputStream, CompressionCodec compressionCodec, PackageSerializer packageSerializer,
+                                                           Executor executor) {
+    return configured(new KnowledgeModuleWriterImpl(outputStream, compressionCodec, packageSerializer, executor));
+  }
+
+  /**
+   * Creates a writer which writes to <code>channel</code> through a reusable direct buffer: header fields and section
+   * frames are collected in the buffer and written together with the following section data, so callers need not
+   * buffer the channel themselves. The channel is left open.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleWriter createKnowledgeModuleWriter(WritableByteChannel channel) {
+    return configured(new KnowledgeModuleWriterImpl(channel, CompressionCodecs.DEFLATE, PackageSerializers.JAVA));
+  }
+
+  /**
+   * Creates a writer which writes each module to a temporary file in the directory of <code>moduleFile</code> and
+   * renames it to <code>moduleFile</code> once it is completely written and forced to disk. Readers of
+   * <code>moduleFile</code> therefore never see a partially written module, not even after a crash, and a failed write
+   * leaves the previous module in place. All writes reuse the same direct buffer.
+   *
+   * @since 0.3.2
+   * @see #createKnowledgeModuleWriter(WritableByteChannel)
+   */
+  public KnowledgeModuleWriter createKnowledgeModuleWriter(File moduleFile) {
+    final FileKnowledgeModuleWriterImpl writer = new FileKnowledgeModuleWriterImpl(moduleFile, CompressionCodecs.DEFLATE, PackageSerializers.JAVA);
+    writer.setKnowledgeIoListeners(listeners);
+    writer.setPackageSerializers(packageSerializers);
+    return writer;
+  }
+
+  /**
+   * Creates a writer to which packages are handed one at a time, compressing them with {@link CompressionCodecs#DEFLATE}
+   * and encoding them with {@link PackageSerializers#JAVA}.
+   *
+   * @since 0.3.2
+   */
+  public IncrementalKnowledgeModuleWriter createIncrementalKnowledgeModuleWriter(OutputStream outputStream) {
+    return createIncrementalKnowledgeModuleWriter(outputStream, CompressionCodecs.DEFLATE, PackageSerializers.JAVA);
+  }
+
+  /**
+   * @since 0.3.2
+   * @see #createIncrementalKnowledgeModuleWriter(OutputStream)
+   * @see #createKnowledgeModuleWriter(OutputStream, CompressionCodec, PackageSerializer)
+   */
+  public IncrementalKnowledgeModuleWriter createIncrementalKnowledgeModuleWriter(OutputStream outputStream, CompressionCodec compressionCodec,
+                                                                                 PackageSerializer packageSerializer) {
+    final KnowledgeModuleWriterImpl writer = new KnowledgeModuleWriterImpl(outputStream, compressionCodec, packageSerializer);
+    writer.setKnowledgeIoListeners(listeners);
+    return writer;
+  }
+
+  /**
+   * Creates a writer which appends knowledge packages to the existing module in <code>moduleFile</code>, without
+   * rewriting the sections already in it. The module must be written in the current file format, and new packages are
+   * serialized and compressed as recorded in it. Delta modules and modules holding a knowledge base snapshot cannot be
+   * appended to.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleAppender createAppendingKnowledgeModuleWriter(File moduleFile) {
+    final AppendingKnowledgeModuleWriterImpl writer = new AppendingKnowledgeModuleWriterImpl(moduleFile);
+    writer.setKnowledgeIoListeners(listeners);
+    writer.setPackageSerializers(packageSerializers);
+    return writer;
+  }
+
+  /**
+   * Creates tools to merge and split module files without deserializing their packages.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleTools createKnowledgeModuleTools() {
+    final KnowledgeModuleToolsImpl tools = new KnowledgeModuleToolsImpl();
+    tools.setKnowledgeIoListeners(listeners);
+    return tools;
+  }
+
+  /**
+   * Creates a loader to be shared by all threads loading modules, which requires the Drools runtime versions of
+   * loaded modules to match the one on the classpath.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleLoader createKnowledgeModuleLoader() {
+    return createKnowledgeModuleLoader(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+  }
+
+  /**
+   * @since 0.3.2
+   * @see #createKnowledgeModuleLoader()
+   */
+  public KnowledgeModuleLoader createKnowledgeModuleLoader(VersionCheckStrategy versionCheckStrategy) {
+    final KnowledgeModuleLoaderImpl loader = new KnowledgeModuleLoaderImpl(versionCheckStrategy);
+    loader.setKnowledgeIoListeners(listeners);
+    loader.setPackageSerializers(packageSerializers);
+    return loader;
+  }
+
+  /**
+   * Creates a batch loader which loads up to <code>parallelism</code> modules at once, with the calling thread and
+   * threads of the default executor of asynchronous reads. Loaded modules' Drools runtime versions must match the one
+   * on the classpath.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readKnowledgePackagesAsync(Executor)
+   */
+  public KnowledgeModuleBatchLoader createKnowledgeModuleBatchLoader(int parallelism) {
+    return createKnowledgeModuleBatchLoader(parallelism, null);
+  }
+
+  /**
+   * @param executor runs all loads but those on the calling thread; <code>null</code> for the default executor.
+   * @since 0.3.2
+   * @see #createKnowledgeModuleBatchLoader(int)
+   */
+  public KnowledgeModuleBatchLoader createKnowledgeModuleBatchLoader(int parallelism, Executor executor) {
+    final KnowledgeModuleLoaderImpl loader = new KnowledgeModuleLoaderImpl(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    loader.setKnowledgeIoListeners(listeners);
+    loader.setPackageSerializers(packageSerializers);
+    return new KnowledgeModuleBatchLoaderImpl(loader, parallelism, executor);
+  }
+
+  /**
+   * Creates a cache holding the packages of at most <code>maximumModules</code> modules, loaded by readers of this factory.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleCache createKnowledgeModuleCache(int maximumModules) {
+    return createKnowledgeModuleCache(maximumModules, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+  }
+
+  /**
+   * @since 0.3.2
+   * @see #createKnowledgeModuleCache(int)
+   */
+  public KnowledgeModuleCache createKnowledgeModuleCache(int maximumModules, VersionCheckStrategy versionCheckStrategy) {
+    return new KnowledgeModuleCacheImpl(this, maximumModules, versionCheckStrategy);
+  }
+
+  /**
+   * Creates a watcher which checks its module files every <code>pollIntervalMillis</code> milliseconds once started,
+   * and reloads changed modules with readers of this factory.
+   *
+   * @since 0.3.2
+   */
+  public KnowledgeModuleWatcher createKnowledgeModuleWatcher(ClassLoader classLoader, long pollIntervalMillis) {
+    return new KnowledgeModuleWatcherImpl(this, classLoader, pollIntervalMillis);
+  }
+
+  private KnowledgeModuleReader configured(KnowledgeModuleReaderImpl reader) {
+    reader.setKnowledgeIoListeners(listeners);
+    reader.setPackageSerializers(packageSerializers);
+    return reader;
+  }
+
+  private KnowledgeModuleWriter configured(KnowledgeModuleWriterImpl writer) {
+    writer.setKnowledgeIoListeners(listeners);
+    writer.setPackageSerializers(packageSerializers);
+    return writer;
   }
 }
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * Receives timings and byte counts for the phases of reading and writing knowledge modules.
+ * Register listeners with {@link KnowledgeIoFactory#addKnowledgeIoListener(KnowledgeIoListener)}; they apply to
+ * all readers, writers and caches created by that factory.
+ * <p/>
+ * Listeners are called synchronously on the thread performing the phase. Packages deserialized concurrently on an
+ * executor report their phases from the executor's threads, so implementations must be thread-safe and should return
+ * quickly.
+ *
+ * @since 0.3.2
+ */
+public interface KnowledgeIoListener {
+
+  void phaseCompleted(KnowledgeIoEvent event);
+}
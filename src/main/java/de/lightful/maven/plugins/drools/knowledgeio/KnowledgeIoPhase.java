@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * Phases of reading and writing a knowledge module, as reported to a {@link KnowledgeIoListener}.
+ *
+ * @since 0.3.2
+ */
+public enum KnowledgeIoPhase {
+
+  /** Parsing file magic, file format version, Drools runtime version and compression codec. */
+  READ_HEADER,
+
+  /** Reading the framed, compressed data of one package section. Skipped sections are not reported. */
+  READ_SECTION,
+
+  /** Decompressing one package section. Interleaved with {@link #DESERIALIZE}; reports accumulated time. */
+  INFLATE,
+
+  /**
+   * Java deserialization of one package section, excluding time spent in {@link #INFLATE}.
+   * For monolithic modules (file format version 1), the whole module including its decompression.
+   */
+  DESERIALIZE,
+
+  /** Checking that deserialized objects are knowledge packages. */
+  VALIDATE,
+
+  /** Reading the section index. */
+  READ_INDEX,
+
+  /** Reading all requested packages of a module; reported once per read, not for incremental iteration. */
+  READ_MODULE,
+
+  /** Adding the packages read to a new knowledge base, for modules read without a usable knowledge base snapshot. */
+  BUILD_KNOWLEDGE_BASE,
+
+  /** Writing the module header. */
+  WRITE_HEADER,
+
+  /** Java serialization of one knowledge package, excluding time spent in {@link #DEFLATE}. */
+  SERIALIZE,
+
+  /** Compressing one knowledge package. Interleaved with {@link #SERIALIZE}; reports accumulated time. */
+  DEFLATE,
+
+  /** Writing the frame and compressed data of one package section. */
+  WRITE_SECTION,
+
+  /** Writing the section index and trailer. */
+  WRITE_INDEX,
+
+  /** Writing a whole module. */
+  WRITE_MODULE,
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.IOException;
+
+/**
+ * Appends knowledge packages to an existing module file. Only packages can be appended: knowledge base snapshots
+ * and delta modules are always written as new modules by a {@link KnowledgeModuleWriter}.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createAppendingKnowledgeModuleWriter(java.io.File)
+ */
+public interface KnowledgeModuleAppender {
+
+  /**
+   * Appends <code>knowledgePackages</code> to the module.
+   *
+   * @throws IllegalArgumentException if the module is a delta module or holds a knowledge base snapshot, or if it
+   * already contains a package of the same name.
+   */
+  void writeKnowledgePackages(Iterable<KnowledgePackage> knowledgePackages) throws IOException;
+}
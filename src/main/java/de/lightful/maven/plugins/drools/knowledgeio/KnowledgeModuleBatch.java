@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Knowledge packages of a batch of module files, together with the outcome of loading each of them.
+ *
+ * @since 0.3.2
+ * @see KnowledgeModuleBatchLoader#load(java.util.List, ClassLoader)
+ */
+public class KnowledgeModuleBatch {
+
+  private final List<LoadedKnowledgeModule> loadedModules;
+  private final List<KnowledgePackage> knowledgePackages;
+  private final long elapsedNanos;
+
+  public KnowledgeModuleBatch(List<LoadedKnowledgeModule> loadedModules, long elapsedNanos) {
+    this.loadedModules = Collections.unmodifiableList(new ArrayList<LoadedKnowledgeModule>(loadedModules));
+    List<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>();
+    for (LoadedKnowledgeModule loadedModule : loadedModules) {
+      if (!loadedModule.isDuplicate()) {
+        knowledgePackages.addAll(loadedModule.getKnowledgePackages());
+      }
+    }
+    this.knowledgePackages = Collections.unmodifiableList(knowledgePackages);
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * @return packages of all modules in module order, each duplicate module contributing nothing.
+   */
+  public List<KnowledgePackage> getKnowledgePackages() {
+    return knowledgePackages;
+  }
+
+  /**
+   * @return one entry per module file, in the order the files were given.
+   */
+  public List<LoadedKnowledgeModule> getLoadedModules() {
+    return loadedModules;
+  }
+
+  /**
+   * @return wall-clock time taken to load the whole batch.
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+}
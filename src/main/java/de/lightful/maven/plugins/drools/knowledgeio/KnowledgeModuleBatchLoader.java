@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Loads many module files at once into one set of knowledge packages, using several threads. Module files with
+ * identical content are loaded only once.
+ * <p/>
+ * Implementations are thread-safe.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createKnowledgeModuleBatchLoader(int)
+ */
+public interface KnowledgeModuleBatchLoader {
+
+  /**
+   * Loads the knowledge packages of all <code>moduleFiles</code>. Packages are returned in the order of the module files
+   * and of the packages within each of them, regardless of the order in which modules finish loading.
+   *
+   * @throws IllegalArgumentException if modules of different content contain a package of the same name.
+   * @throws KnowledgeModuleReadException if a module cannot be loaded; its message names the module file, its cause is
+   * the original failure. Once a module has failed, no further modules are started.
+   */
+  KnowledgeModuleBatch load(List<File> moduleFiles, ClassLoader classLoader) throws IOException;
+}
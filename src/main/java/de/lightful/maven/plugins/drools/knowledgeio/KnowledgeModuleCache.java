@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * Keeps the knowledge packages of recently loaded modules, keyed by a digest of the module bytes and
+ * the identity of the class loader used for deserialization. Loading identical module bytes again with the
+ * same class loader returns the cached packages without deserializing them again. Concurrent loads of the
+ * same module are coalesced into one. The least recently used modules are evicted once the cache is full.
+ * <p/>
+ * Implementations are thread-safe. Cached packages are shared between all callers and must not be modified.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createKnowledgeModuleCache(int)
+ */
+public interface KnowledgeModuleCache {
+
+  /**
+   * Reads <code>inputStream</code> to its end to compute the digest, then returns the cached packages
+   * or deserializes them from the bytes read.
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads <code>moduleFile</code> into memory to compute the digest, then returns the cached packages
+   * or deserializes them from the bytes read. The file is not mapped, so it may be replaced while cached.
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(File moduleFile, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+  /**
+   * Number of reads answered from the cache, including reads which waited for a concurrent load of the same module.
+   */
+  long getHitCount();
+
+  /**
+   * Number of reads which had to load the module.
+   */
+  long getMissCount();
+
+  long getEvictionCount();
+
+  /**
+   * Number of modules currently cached or being loaded.
+   */
+  int size();
+
+  void clear();
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * Loads knowledge modules without per-call setup: unlike a {@link KnowledgeModuleReader}, which reads one module once,
+ * a loader is meant to be created once and shared. It looks up the Drools runtime version on the classpath once,
+ * and reuses inflaters and read buffers across loads.
+ * <p/>
+ * Implementations are thread-safe.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createKnowledgeModuleLoader()
+ */
+public interface KnowledgeModuleLoader {
+
+  /**
+   * Maps <code>moduleFile</code> into memory and reads all of its knowledge packages.
+   */
+  Collection<KnowledgePackage> load(File moduleFile, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads <code>inputStream</code> to its end into a pooled buffer, then reads all knowledge packages from the buffer.
+   * The stream is not closed.
+   */
+  Collection<KnowledgePackage> load(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
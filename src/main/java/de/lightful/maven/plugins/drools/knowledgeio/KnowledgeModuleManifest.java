@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a knowledge module without deserializing any of its content.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#probe(java.io.File)
+ * @see KnowledgeIoFactory#probe(java.io.InputStream)
+ */
+public class KnowledgeModuleManifest {
+
+  private final long fileFormatVersion;
+  private final String droolsRuntimeVersion;
+  private final byte compressionCodecId;
+  private final byte[] baseModuleDigest;
+  private final List<KnowledgePackageManifest> knowledgePackages;
+  private final Set<String> removedPackageNames;
+
+  public KnowledgeModuleManifest(long fileFormatVersion, String droolsRuntimeVersion, byte compressionCodecId, List<KnowledgePackageManifest> knowledgePackages) {
+    this(fileFormatVersion, droolsRuntimeVersion, compressionCodecId, null, knowledgePackages, Collections.<String>emptySet());
+  }
+
+  /**
+   * @param baseModuleDigest digest of the base module of a delta module, <code>null</code> for full modules.
+   */
+  public KnowledgeModuleManifest(long fileFormatVersion, String droolsRuntimeVersion, byte compressionCodecId, byte[] baseModuleDigest,
+                                 List<KnowledgePackageManifest> knowledgePackages, Set<String> removedPackageNames) {
+    this.fileFormatVersion = fileFormatVersion;
+    this.droolsRuntimeVersion = droolsRuntimeVersion;
+    this.compressionCodecId = compressionCodecId;
+    this.baseModuleDigest = baseModuleDigest == null ? null : baseModuleDigest.clone();
+    this.knowledgePackages = Collections.unmodifiableList(new ArrayList<KnowledgePackageManifest>(knowledgePackages));
+    this.removedPackageNames = Collections.unmodifiableSet(new LinkedHashSet<String>(removedPackageNames));
+  }
+
+  public long getFileFormatVersion() {
+    return fileFormatVersion;
+  }
+
+  public String getDroolsRuntimeVersion() {
+    return droolsRuntimeVersion;
+  }
+
+  /**
+   * @see CompressionCodecs#forId(byte)
+   */
+  public byte getCompressionCodecId() {
+    return compressionCodecId;
+  }
+
+  /**
+   * @return whether this is a delta module, holding only the packages changed relative to a base module.
+   * @see KnowledgeModuleReader#applyDelta(byte[], java.util.Collection)
+   */
+  public boolean isDelta() {
+    return baseModuleDigest != null;
+  }
+
+  /**
+   * @return digest of the base module of a delta module, <code>null</code> for full modules.
+   * @see KnowledgeIoFactory#digest(java.io.File)
+   */
+  public byte[] getBaseModuleDigest() {
+    return baseModuleDigest == null ? null : baseModuleDigest.clone();
+  }
+
+  /**
+   * @return names of the base module's packages removed by a delta module; empty for full modules.
+   */
+  public Set<String> getRemovedPackageNames() {
+    return removedPackageNames;
+  }
+
+  /**
+   * Packages in module order. Empty for modules in the monolithic file format (version 1), which
+   * cannot be inspected without deserializing them.
+   */
+  public List<KnowledgePackageManifest> getKnowledgePackages() {
+    return knowledgePackages;
+  }
+
+  public List<String> getPackageNames() {
+    List<String> packageNames = new ArrayList<String>(knowledgePackages.size());
+    for (KnowledgePackageManifest knowledgePackage : knowledgePackages) {
+      packageNames.add(knowledgePackage.getName());
+    }
+    return packageNames;
+  }
+
+  /**
+   * @return total number of rules, or {@link KnowledgePackageManifest#UNKNOWN} if not recorded for any package.
+   */
+  public int getRuleCount() {
+    int ruleCount = 0;
+    for (KnowledgePackageManifest knowledgePackage : knowledgePackages) {
+      if (knowledgePackage.getRuleCount() == KnowledgePackageManifest.UNKNOWN) {
+        return KnowledgePackageManifest.UNKNOWN;
+      }
+      ruleCount += knowledgePackage.getRuleCount();
+    }
+    return ruleCount;
+  }
+
+  /**
+   * @return total number of type declarations, or {@link KnowledgePackageManifest#UNKNOWN} if not recorded for any package.
+   */
+  public int getTypeDeclarationCount() {
+    int typeDeclarationCount = 0;
+    for (KnowledgePackageManifest knowledgePackage : knowledgePackages) {
+      if (knowledgePackage.getTypeDeclarationCount() == KnowledgePackageManifest.UNKNOWN) {
+        return KnowledgePackageManifest.UNKNOWN;
+      }
+      typeDeclarationCount += knowledgePackage.getTypeDeclarationCount();
+    }
+    return typeDeclarationCount;
+  }
+
+  /**
+   * @return total size of all package sections in bytes, as stored (i.e. compressed).
+   */
+  public long getSectionSize() {
+    long sectionSize = 0;
+    for (KnowledgePackageManifest knowledgePackage : knowledgePackages) {
+      sectionSize += knowledgePackage.getSectionSize();
+    }
+    return sectionSize;
+  }
+}
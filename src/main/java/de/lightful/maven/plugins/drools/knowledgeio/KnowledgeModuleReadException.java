@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * Signals that reading a knowledge package failed in a context which does not allow checked exceptions,
+ * like an {@link java.util.Iterator} returned by {@link KnowledgeModuleReader#iterateKnowledgePackages()}.
+ * The cause is the original {@link java.io.IOException} or {@link ClassNotFoundException}.
+ *
+ * @since 0.3.2
+ */
+public class KnowledgeModuleReadException extends RuntimeException {
+
+  public KnowledgeModuleReadException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
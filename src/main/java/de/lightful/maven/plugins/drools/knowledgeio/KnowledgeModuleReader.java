@@ -18,10 +18,15 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio;
 
+import org.drools.KnowledgeBase;
 import org.drools.definition.KnowledgePackage;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public interface KnowledgeModuleReader {
 
@@ -34,4 +39,137 @@ public interface KnowledgeModuleReader {
    * @since 0.3.1
    */
   Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads only the knowledge packages whose names are contained in <code>packageNames</code>.
+   * In modules using the indexed file format, sections of all other packages are skipped without being
+   * decompressed or deserialized. Names without a matching package are ignored.
+   *
+   * @since 0.3.2
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(Set<String> packageNames) throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #readKnowledgePackages(Set)
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads all knowledge packages, keeping only the rules accepted by <code>ruleFilter</code>. Rejected rules are removed
+   * together with their generated classes, before the packages are returned. Packages left without rules are dropped
+   * unless they declare types; packages which had no rules to begin with are kept.
+   * <p/>
+   * Modules written in file format 9 or later record the rules of each package in their section index. When reading
+   * such modules from a file, packages without any accepted rule are skipped without being decompressed or deserialized.
+   *
+   * @since 0.3.2
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, RuleFilter ruleFilter) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads all knowledge packages, checking deserialized objects as specified by <code>validationLevel</code>.
+   * All other read methods use {@link ValidationLevel#STRUCTURAL}.
+   *
+   * @since 0.3.2
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel) throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #readKnowledgePackages(Set)
+   * @see #readKnowledgePackages(VersionCheckStrategy, ValidationLevel)
+   */
+  Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel, Set<String> packageNames) throws IOException, ClassNotFoundException;
+
+  /**
+   * Restores the knowledge base snapshot of modules written by {@link KnowledgeModuleWriter#writeKnowledgeBase}, which
+   * spares building the Rete network at startup. For modules without a snapshot, or if the Drools runtime on the
+   * classpath is not the exact version the snapshot was written with, all packages are read and added to a new
+   * knowledge base instead.
+   *
+   * @since 0.3.2
+   */
+  KnowledgeBase readKnowledgeBase() throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #readKnowledgeBase()
+   */
+  KnowledgeBase readKnowledgeBase(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads knowledge packages one at a time: each call to {@link Iterator#next()} deserializes one more package,
+   * so callers can hand each package on (e.g. to a knowledge base) and drop it before the next one is loaded.
+   * The file header is read and verified before this method returns. Failures while reading packages are
+   * reported as {@link KnowledgeModuleReadException}.
+   * <p/>
+   * Modules using the monolithic file format (version 1) can only be deserialized as a whole and are
+   * fully loaded by this method.
+   *
+   * @since 0.3.2
+   */
+  Iterator<KnowledgePackage> iterateKnowledgePackages() throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #iterateKnowledgePackages()
+   */
+  Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #iterateKnowledgePackages()
+   * @see #readKnowledgePackages(Set)
+   */
+  Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) throws IOException, ClassNotFoundException;
+
+  /**
+   * @since 0.3.2
+   * @see #iterateKnowledgePackages()
+   * @see #readKnowledgePackages(VersionCheckStrategy, ValidationLevel)
+   */
+  Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel, Set<String> packageNames) throws IOException, ClassNotFoundException;
+
+  /**
+   * Reads all knowledge packages on <code>executor</code>. The file header is read on the executor as well, so failures
+   * of any kind are reported by {@link Future#get()}. Cancelling the returned future stops the read before the next
+   * package is deserialized, even if the reading thread is not interrupted; modules using the monolithic file format
+   * (version 1) are deserialized as a whole and cannot be cancelled midway. A reader cannot read again after a read
+   * has been cancelled.
+   *
+   * @param executor runs the read; <code>null</code> to use a shared default executor, which starts a virtual thread
+   * per read on JVMs supporting virtual threads and otherwise uses a pool of daemon threads.
+   * @since 0.3.2
+   */
+  Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(Executor executor);
+
+  /**
+   * @since 0.3.2
+   * @see #readKnowledgePackagesAsync(Executor)
+   * @see #readKnowledgePackages(Set)
+   */
+  Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(Executor executor, VersionCheckStrategy versionCheckStrategy, Set<String> packageNames);
+
+  /**
+   * Reads the file header and the package index without deserializing any knowledge package.
+   * Unlike the read methods, this does not require the Drools runtime version of the module to match the one
+   * on the classpath.
+   *
+   * @since 0.3.2
+   */
+  KnowledgeModuleManifest readManifest() throws IOException;
+
+  /**
+   * Applies a delta module to the packages of its base module: packages removed by the delta are dropped, packages
+   * of the delta replace base packages of the same name in place, and all other packages of the delta are appended.
+   * <code>basePackages</code> is left unchanged.
+   *
+   * @param baseModuleDigest digest of the module <code>basePackages</code> were read from, checked against the base
+   * module digest recorded in the delta; <code>null</code> to skip the check.
+   * @throws InvalidFileHeaderException if the module is not a delta module.
+   * @throws InvalidBaseModuleException if the delta was written for another base module.
+   * @since 0.3.2
+   */
+  Collection<KnowledgePackage> applyDelta(byte[] baseModuleDigest, Collection<KnowledgePackage> basePackages) throws IOException, ClassNotFoundException;
 }
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Receives changes of the modules watched by a {@link KnowledgeModuleWatcher}. Methods are called on the watcher's
+ * thread and delay further checks until they return. They may watch and unwatch modules. Runtime exceptions thrown by
+ * a subscriber are handed to the uncaught exception handler of the watcher's thread; other subscribers are still
+ * notified and the watcher keeps checking.
+ *
+ * @since 0.3.2
+ */
+public interface KnowledgeModuleSubscriber {
+
+  /**
+   * Called after <code>moduleFile</code> was reloaded and a new snapshot was published.
+   *
+   * @param knowledgePackages the new snapshot, as returned by {@link KnowledgeModuleWatcher#getKnowledgePackages()}.
+   */
+  void knowledgePackagesChanged(File moduleFile, Map<File, Collection<KnowledgePackage>> knowledgePackages);
+
+  /**
+   * Called if a changed module could not be reloaded. The snapshot keeps the previous packages of the module, and the
+   * module is not reloaded again before it changes once more.
+   */
+  void reloadFailed(File moduleFile, Exception cause);
+}
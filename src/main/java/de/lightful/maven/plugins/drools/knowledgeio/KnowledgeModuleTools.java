@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assembles knowledge modules from the package sections of other module files, and verifies module files against
+ * their checksums. Sections are copied as stored, without being decompressed or deserialized, so neither the classes
+ * used by the packages nor a matching Drools runtime need to be on the classpath. Only header, section index and
+ * trailer of the written modules are new.
+ * <p/>
+ * All modules merged or split must be full modules in the indexed file format (version 2 or later). Written modules use the
+ * current file format with the Drools runtime version, compression codec and package serializer of their source modules.
+ * Knowledge base snapshots of source modules are not copied. Target files must differ from all source files.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createKnowledgeModuleTools()
+ */
+public interface KnowledgeModuleTools {
+
+  /**
+   * Writes all packages of <code>sourceFiles</code> to <code>targetFile</code>, in the order of the source files
+   * and of the packages within each of them.
+   *
+   * @throws IllegalArgumentException if the source modules differ in Drools runtime version, compression codec or
+   * package serializer, or if more than one of them contains a package of the same name.
+   */
+  void merge(List<File> sourceFiles, File targetFile) throws IOException;
+
+  /**
+   * Writes the packages of <code>sourceFile</code> to several target files: each target file receives the packages
+   * named by its value in <code>packageNamesByTargetFile</code>, in module order. Packages may go to several target files
+   * or to none of them.
+   *
+   * @throws IllegalArgumentException if a package name does not match any package of the source module.
+   */
+  void split(File sourceFile, Map<File, Set<String>> packageNamesByTargetFile) throws IOException;
+
+  /**
+   * Checks the header, the knowledge base snapshot, every package section and the section index of <code>moduleFile</code>
+   * against their checksums, reading the file once from start to end. Nothing is decompressed or deserialized. Unlike the other methods, this
+   * accepts delta modules as well.
+   *
+   * @throws ChecksumMismatchException if any part of the module does not match its checksum.
+   * @throws InvalidFileFormatVersionException if the module was written before file format 7, which has no checksums.
+   * @throws IllegalFileFormatException if the module is truncated or otherwise malformed.
+   */
+  void verify(File moduleFile) throws IOException;
+}
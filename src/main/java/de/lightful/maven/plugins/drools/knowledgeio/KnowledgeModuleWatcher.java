@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Keeps the knowledge packages of a set of module files up to date. A background thread checks the files periodically;
+ * once a changed file has stayed unchanged for one further check, it is reloaded if its content differs from the
+ * loaded module. Merely touching a file does not cause a reload.
+ * <p/>
+ * The packages of all watched modules are published as one immutable snapshot, replaced atomically after each
+ * reload, so that readers never see a partially reloaded set of modules. If a reload fails, the previous packages
+ * of the module are kept.
+ * <p/>
+ * Implementations are thread-safe.
+ *
+ * @since 0.3.2
+ * @see KnowledgeIoFactory#createKnowledgeModuleWatcher(ClassLoader, long)
+ */
+public interface KnowledgeModuleWatcher {
+
+  /**
+   * Loads <code>moduleFile</code> on the calling thread and watches it from now on. Watched files are read into memory
+   * rather than mapped, so they may be replaced or changed in place at any time.
+   */
+  void watch(File moduleFile) throws IOException, ClassNotFoundException;
+
+  /**
+   * Stops watching <code>moduleFile</code> and removes its packages from the snapshot.
+   */
+  void unwatch(File moduleFile);
+
+  /**
+   * @return current snapshot of the packages of all watched modules, by module file, in the order modules were watched.
+   */
+  Map<File, Collection<KnowledgePackage>> getKnowledgePackages();
+
+  void addSubscriber(KnowledgeModuleSubscriber subscriber);
+
+  void removeSubscriber(KnowledgeModuleSubscriber subscriber);
+
+  /**
+   * Starts checking the watched files on a daemon thread.
+   */
+  void start();
+
+  /**
+   * Stops checking the watched files. The last snapshot stays available.
+   */
+  void stop();
+}
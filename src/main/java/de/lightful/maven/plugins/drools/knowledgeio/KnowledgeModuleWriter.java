@@ -18,11 +18,44 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio;
 
+import org.drools.KnowledgeBase;
 import org.drools.definition.KnowledgePackage;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Set;
 
 public interface KnowledgeModuleWriter {
 
   void writeKnowledgePackages(Iterable<KnowledgePackage> knowledgePackages) throws IOException;
+
+  /**
+   * Writes the packages of <code>knowledgeBase</code>, preceded by a snapshot of the fully built knowledge base, so that
+   * readers on the same Drools runtime can restore the knowledge base without adding the packages to a new one.
+   *
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#readKnowledgeBase()
+   */
+  void writeKnowledgeBase(KnowledgeBase knowledgeBase) throws IOException;
+
+  /**
+   * Writes a delta module holding <code>changedPackages</code>, which are added to or replace packages of the same name
+   * in the base module, and marking <code>removedPackageNames</code> as removed from it.
+   *
+   * @param baseModuleDigest digest of the module the delta applies to, see {@link KnowledgeIoFactory#digest(File)}.
+   * @since 0.3.2
+   * @see KnowledgeModuleReader#applyDelta(byte[], java.util.Collection)
+   */
+  void writeDelta(byte[] baseModuleDigest, Iterable<KnowledgePackage> changedPackages, Set<String> removedPackageNames) throws IOException;
+
+  /**
+   * Writes a delta module turning <code>baseModule</code> into a module holding <code>knowledgePackages</code>.
+   * Packages are compared by their serialized form, without deserializing the base module: only packages which
+   * are new or serialize differently are written, and packages missing from <code>knowledgePackages</code> are
+   * marked as removed. Packages are serialized for comparison with the serializer recorded in the base module, which
+   * must be built in or registered with the factory that created this writer.
+   *
+   * @since 0.3.2
+   */
+  void writeDelta(File baseModule, Iterable<KnowledgePackage> knowledgePackages) throws IOException;
 }
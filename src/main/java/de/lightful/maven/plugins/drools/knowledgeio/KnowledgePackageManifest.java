@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes one knowledge package of a knowledge module, as recorded in the module's section index.
+ *
+ * @since 0.3.2
+ * @see KnowledgeModuleManifest
+ */
+public class KnowledgePackageManifest {
+
+  /**
+   * Count value for modules written before counts were recorded (file format versions 2 and 3).
+   */
+  public static final int UNKNOWN = -1;
+
+  private final String name;
+  private final long sectionSize;
+  private final int ruleCount;
+  private final int typeDeclarationCount;
+  private final List<KnowledgeRuleManifest> rules;
+
+  public KnowledgePackageManifest(String name, long sectionSize, int ruleCount, int typeDeclarationCount) {
+    this(name, sectionSize, ruleCount, typeDeclarationCount, null);
+  }
+
+  /**
+   * @param rules rules of the package, <code>null</code> if not recorded.
+   */
+  public KnowledgePackageManifest(String name, long sectionSize, int ruleCount, int typeDeclarationCount, List<KnowledgeRuleManifest> rules) {
+    this.name = name;
+    this.sectionSize = sectionSize;
+    this.ruleCount = ruleCount;
+    this.typeDeclarationCount = typeDeclarationCount;
+    this.rules = rules == null ? null : Collections.unmodifiableList(new ArrayList<KnowledgeRuleManifest>(rules));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return size of the package's section in bytes, as stored (i.e. compressed).
+   */
+  public long getSectionSize() {
+    return sectionSize;
+  }
+
+  public int getRuleCount() {
+    return ruleCount;
+  }
+
+  public int getTypeDeclarationCount() {
+    return typeDeclarationCount;
+  }
+
+  /**
+   * @return rules of the package, <code>null</code> for modules written before rules were recorded (file format
+   * versions 1 to 8).
+   */
+  public List<KnowledgeRuleManifest> getRules() {
+    return rules;
+  }
+}
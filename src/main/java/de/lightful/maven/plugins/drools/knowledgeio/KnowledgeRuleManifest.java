@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes one rule of a knowledge package, as recorded in the section index of a knowledge module.
+ *
+ * @since 0.3.2
+ * @see KnowledgePackageManifest#getRules()
+ * @see RuleFilter
+ */
+public class KnowledgeRuleManifest {
+
+  private final String packageName;
+  private final String name;
+  private final String agendaGroup;
+  private final Map<String, String> metaAttributes;
+
+  public KnowledgeRuleManifest(String packageName, String name, String agendaGroup, Map<String, String> metaAttributes) {
+    this.packageName = packageName;
+    this.name = name;
+    this.agendaGroup = agendaGroup;
+    this.metaAttributes = Collections.unmodifiableMap(new LinkedHashMap<String, String>(metaAttributes));
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getAgendaGroup() {
+    return agendaGroup;
+  }
+
+  /**
+   * @return meta attributes declared on the rule (e.g. <code>@region(emea)</code>), with their values as strings;
+   *         attributes declared without a value map to an empty string.
+   */
+  public Map<String, String> getMetaAttributes() {
+    return metaAttributes;
+  }
+
+  /**
+   * @return value of the meta attribute <code>key</code>, <code>null</code> if the rule does not declare it.
+   */
+  public String getMetaAttribute(String key) {
+    return metaAttributes.get(key);
+  }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of loading one module file as part of a batch.
+ *
+ * @since 0.3.2
+ * @see KnowledgeModuleBatch
+ */
+public class LoadedKnowledgeModule {
+
+  private final File moduleFile;
+  private final byte[] digest;
+  private final File duplicateOf;
+  private final List<KnowledgePackage> knowledgePackages;
+  private final long digestNanos;
+  private final long loadNanos;
+
+  /**
+   * @param duplicateOf module file of the batch with the same content, which was loaded instead of this one;
+   * <code>null</code> if this module was loaded itself.
+   */
+  public LoadedKnowledgeModule(File moduleFile, byte[] digest, File duplicateOf, Collection<KnowledgePackage> knowledgePackages,
+                               long digestNanos, long loadNanos) {
+    this.moduleFile = moduleFile;
+    this.digest = digest.clone();
+    this.duplicateOf = duplicateOf;
+    this.knowledgePackages = Collections.unmodifiableList(new ArrayList<KnowledgePackage>(knowledgePackages));
+    this.digestNanos = digestNanos;
+    this.loadNanos = loadNanos;
+  }
+
+  public File getModuleFile() {
+    return moduleFile;
+  }
+
+  /**
+   * @see KnowledgeIoFactory#digest(File)
+   */
+  public byte[] getDigest() {
+    return digest.clone();
+  }
+
+  public boolean isDuplicate() {
+    return duplicateOf != null;
+  }
+
+  /**
+   * @return module file of the batch with the same content, which was loaded instead of this one; <code>null</code>
+   * if this module was loaded itself.
+   */
+  public File getDuplicateOf() {
+    return duplicateOf;
+  }
+
+  /**
+   * @return packages of the module; for duplicates, the packages loaded from {@link #getDuplicateOf()}.
+   */
+  public List<KnowledgePackage> getKnowledgePackages() {
+    return knowledgePackages;
+  }
+
+  /**
+   * @return time taken to compute the module's digest.
+   */
+  public long getDigestNanos() {
+    return digestNanos;
+  }
+
+  /**
+   * @return time taken to read the module's packages, <code>0</code> for duplicates.
+   */
+  public long getLoadNanos() {
+    return loadNanos;
+  }
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.definition.KnowledgePackage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes the knowledge package of each section of a knowledge module, before compression. The id of the serializer
+ * used for writing is recorded in the module header; readers resolve it among the built-in serializers of
+ * {@link PackageSerializers} and those registered with {@link KnowledgeIoFactory#registerPackageSerializer(PackageSerializer)}.
+ *
+ * @since 0.3.2
+ * @see PackageSerializers
+ */
+public interface PackageSerializer {
+
+  /**
+   * Identifies the encoding in the module header. Ids 0 to 63 are reserved for built-in serializers.
+   */
+  byte getId();
+
+  /**
+   * Writes <code>knowledgePackage</code> to <code>outputStream</code>. May close <code>outputStream</code>;
+   * callers close it afterwards in any case.
+   */
+  void serialize(KnowledgePackage knowledgePackage, OutputStream outputStream) throws IOException;
+
+  /**
+   * Reads one package written by {@link #serialize(KnowledgePackage, OutputStream)}. Readers check the type of the
+   * result as requested by their {@link ValidationLevel}.
+   *
+   * @param classLoader resolves the classes referenced by the package.
+   */
+  Object deserialize(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException;
+}
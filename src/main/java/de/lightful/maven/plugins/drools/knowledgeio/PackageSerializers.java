@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Built-in {@link PackageSerializer}s.
+ *
+ * @since 0.3.2
+ */
+public class PackageSerializers {
+
+  public static final byte JAVA_ID = 0;
+
+  /**
+   * Java object serialization as done by {@link DroolsStreamUtils}. Implied for modules written before package
+   * serializers were recorded in the header.
+   */
+  public static final PackageSerializer JAVA = new JavaSerialization();
+
+  /**
+   * Ids from 0 up to this value are reserved for built-in serializers.
+   */
+  public static final byte MAXIMUM_BUILT_IN_ID = 63;
+
+  private PackageSerializers() {
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no built-in serializer with the given id.
+   */
+  public static PackageSerializer forId(byte id) {
+    switch (id) {
+      case JAVA_ID:
+        return JAVA;
+      default:
+        throw new IllegalArgumentException("Unknown package serializer id: " + id);
+    }
+  }
+
+  private static class JavaSerialization implements PackageSerializer {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    public byte getId() {
+      return JAVA_ID;
+    }
+
+    public void serialize(KnowledgePackage knowledgePackage, OutputStream outputStream) throws IOException {
+      DroolsStreamUtils.streamOut(outputStream, knowledgePackage, false);
+    }
+
+    /**
+     * Buffers the input: object streams issue many small reads, each of which would otherwise pass through the
+     * decompressor separately.
+     */
+    public Object deserialize(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+      return DroolsStreamUtils.streamIn(new BufferedInputStream(inputStream, READ_BUFFER_SIZE), classLoader, false);
+    }
+
+    @Override
+    public String toString() {
+      return "JAVA";
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio;
+
+/**
+ * Indicates how thoroughly objects deserialized from a DKM file are checked before they are returned
+ * as knowledge packages.
+ *
+ * @since 0.3.2
+ * @see KnowledgeModuleReader#readKnowledgePackages(VersionCheckStrategy, ValidationLevel)
+ */
+public enum ValidationLevel {
+
+  /**
+   * Do not check deserialized objects. Use this only for modules from a trusted source, e.g. written by
+   * the same build: a module containing other objects than knowledge packages will cause a
+   * {@link ClassCastException} when the packages are used.
+   */
+  NONE,
+
+  /**
+   * Check that every deserialized object is a knowledge package.
+   * Throw {@link IllegalFileFormatException} otherwise.
+   * This is the default of all read methods not taking a validation level.
+   */
+  STRUCTURAL,
+
+  /**
+   * In addition to {@link #STRUCTURAL} checks, verify that package names are unique within the module
+   * and match the names recorded in the section frames of indexed modules.
+   * Throw {@link IllegalFileFormatException} otherwise.
+   */
+  FULL,
+
+}
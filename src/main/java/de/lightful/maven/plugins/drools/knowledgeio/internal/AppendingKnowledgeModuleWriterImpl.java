@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileFormatVersionException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleAppender;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Appends package sections to an existing module file. The end-of-sections marker, section index and trailer are
+ * overwritten by the new sections, a new end-of-sections marker, an index covering all sections and a new trailer;
+ * header and existing sections are left untouched.
+ * <p/>
+ * Appending is not atomic: a failure while writing leaves the module without a valid index.
+ */
+public class AppendingKnowledgeModuleWriterImpl implements KnowledgeModuleAppender {
+
+  private final File moduleFile;
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+
+  public AppendingKnowledgeModuleWriterImpl(File moduleFile) {
+    this.moduleFile = moduleFile;
+  }
+
+  /**
+   * @param listeners receive the timings of all following writes.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * @param packageSerializers resolve the package serializer recorded in the module header.
+   */
+  public void setPackageSerializers(PackageSerializerRegistry packageSerializers) {
+    this.packageSerializers = packageSerializers;
+  }
+
+  /**
+   * Appends <code>knowledgePackages</code>, serialized and compressed as recorded in the module's header.
+   *
+   * @throws InvalidFileFormatVersionException if the module was not written in the current file format.
+   * @throws IllegalArgumentException if the module is a delta module, already contains a package of the same name, or
+   * holds a knowledge base snapshot, which would no longer match its packages.
+   */
+  public void writeKnowledgePackages(Iterable<KnowledgePackage> knowledgePackages) throws IOException {
+    final IndexedModuleFile file = IndexedModuleFile.open(moduleFile, "rw", VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    try {
+      final DroolsKnowledgeModuleHeader header = file.getHeader();
+      if (header.fileFormatVersion != IndexedModuleFile.CURRENT_FILE_FORMAT_VERSION) {
+        throw new InvalidFileFormatVersionException("Cannot append to knowledge module of file format version " + header.fileFormatVersion
+                                                    + ", only to version " + IndexedModuleFile.CURRENT_FILE_FORMAT_VERSION + ". Rewrite the module first.");
+      }
+      if (header.moduleKind != KnowledgeModule.MODULE_KIND_FULL) {
+        throw new IllegalArgumentException("Cannot append to delta knowledge module. Apply the delta and write a full module instead.");
+      }
+      if (header.snapshotKind != KnowledgeModule.SNAPSHOT_NONE) {
+        throw new IllegalArgumentException("Cannot append to knowledge module holding a knowledge base snapshot. Rewrite the module first.");
+      }
+      final List<DroolsKnowledgeModuleSection> existingSections = file.getSections();
+      ensurePackagesAreNew(existingSections, knowledgePackages);
+
+      final FileChannel channel = file.getChannel();
+      final long sectionsEndOffset = file.getIndexOffset() - 1;
+      channel.position(sectionsEndOffset);
+      final OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+      final KnowledgeModuleWriterImpl writer = new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.forId(header.compressionCodecId),
+                                                                             packageSerializers.forId(header.packageSerializerId), null, sectionsEndOffset);
+      writer.setKnowledgeIoListeners(listeners);
+      writer.appendKnowledgePackages(existingSections, knowledgePackages);
+      file.setLength(channel.position());
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private void ensurePackagesAreNew(List<DroolsKnowledgeModuleSection> existingSections, Iterable<KnowledgePackage> knowledgePackages) {
+    Set<String> packageNames = new HashSet<String>();
+    for (DroolsKnowledgeModuleSection section : existingSections) {
+      packageNames.add(section.packageName);
+    }
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      if (!packageNames.add(knowledgePackage.getName())) {
+        throw new IllegalArgumentException("Knowledge module already contains package '" + knowledgePackage.getName() + "'.");
+      }
+    }
+  }
+}
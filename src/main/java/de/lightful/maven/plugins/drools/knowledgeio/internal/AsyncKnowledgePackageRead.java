@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReader;
+import de.lightful.maven.plugins.drools.knowledgeio.ValidationLevel;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.definition.KnowledgePackage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads all knowledge packages of a reader as one task. Cancelling the task stops the read before the next package,
+ * also when cancelled without interrupting the reading thread.
+ */
+class AsyncKnowledgePackageRead extends FutureTask<Collection<KnowledgePackage>> {
+
+  private final ReadOperation readOperation;
+
+  AsyncKnowledgePackageRead(KnowledgeModuleReader reader, VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) {
+    this(new ReadOperation(reader, versionCheckStrategy, packageNames));
+  }
+
+  private AsyncKnowledgePackageRead(ReadOperation readOperation) {
+    super(readOperation);
+    this.readOperation = readOperation;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    readOperation.cancelled = true;
+    return super.cancel(mayInterruptIfRunning);
+  }
+
+  private static class ReadOperation implements Callable<Collection<KnowledgePackage>> {
+
+    private final KnowledgeModuleReader reader;
+    private final VersionCheckStrategy versionCheckStrategy;
+    private final Set<String> packageNames;
+    private volatile boolean cancelled = false;
+
+    private ReadOperation(KnowledgeModuleReader reader, VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) {
+      this.reader = reader;
+      this.versionCheckStrategy = versionCheckStrategy;
+      this.packageNames = packageNames;
+    }
+
+    public Collection<KnowledgePackage> call() throws Exception {
+      final Iterator<KnowledgePackage> iterator = reader.iterateKnowledgePackages(versionCheckStrategy, ValidationLevel.STRUCTURAL, packageNames);
+      List<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>();
+      try {
+        while (!cancelled && iterator.hasNext()) {
+          knowledgePackages.add(iterator.next());
+        }
+      }
+      catch (KnowledgeModuleReadException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+      if (cancelled) {
+        // the result of a cancelled task is discarded, this only ends the read
+        throw new CancellationException("Read of knowledge packages was cancelled.");
+      }
+      return knowledgePackages;
+    }
+  }
+}
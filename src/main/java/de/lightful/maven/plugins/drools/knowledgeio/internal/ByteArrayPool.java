@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps idle byte arrays for reuse, up to a total number of bytes. Arrays longer than the maximum pooled length are left
+ * to the garbage collector, so that one exceptionally large module does not pin its buffer.
+ */
+class ByteArrayPool {
+
+  private final List<byte[]> idleArrays = new ArrayList<byte[]>();
+  private final long maximumPooledBytes;
+  private final int maximumPooledLength;
+  private long pooledBytes;
+
+  ByteArrayPool(long maximumPooledBytes, int maximumPooledLength) {
+    this.maximumPooledBytes = maximumPooledBytes;
+    this.maximumPooledLength = maximumPooledLength;
+  }
+
+  /**
+   * Hands out the longest idle array, so that callers growing their buffer start from the largest size seen so far.
+   *
+   * @return an array of at least <code>minimumLength</code> bytes, with undefined content.
+   */
+  synchronized byte[] acquire(int minimumLength) {
+    int longestIndex = -1;
+    for (int i = 0; i < idleArrays.size(); i++) {
+      if (longestIndex < 0 || idleArrays.get(i).length > idleArrays.get(longestIndex).length) {
+        longestIndex = i;
+      }
+    }
+    if (longestIndex < 0 || idleArrays.get(longestIndex).length < minimumLength) {
+      return new byte[minimumLength];
+    }
+    final byte[] array = idleArrays.remove(longestIndex);
+    pooledBytes -= array.length;
+    return array;
+  }
+
+  /**
+   * Keeps <code>array</code> for reuse unless it is too long or the pool already holds its maximum number of bytes.
+   */
+  synchronized void release(byte[] array) {
+    if (array.length <= maximumPooledLength && pooledBytes + array.length <= maximumPooledBytes) {
+      idleArrays.add(array);
+      pooledBytes += array.length;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a {@link ByteBuffer}, typically a memory-mapped knowledge module. Reads copy directly from the
+ * buffer into the caller's array; no intermediate buffers are allocated and no system calls are made.
+ */
+class ByteBufferInputStream extends InputStream {
+
+  private final ByteBuffer buffer;
+
+  ByteBufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public int read() {
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (!buffer.hasRemaining()) {
+      return -1;
+    }
+    final int lengthRead = Math.min(length, buffer.remaining());
+    buffer.get(bytes, offset, lengthRead);
+    return lengthRead;
+  }
+
+  @Override
+  public long skip(long length) {
+    if (length <= 0) {
+      return 0;
+    }
+    final int lengthSkipped = (int) Math.min(length, buffer.remaining());
+    buffer.position(buffer.position() + lengthSkipped);
+    return lengthSkipped;
+  }
+
+  @Override
+  public int available() {
+    return buffer.remaining();
+  }
+
+  /**
+   * @return the underlying buffer, sharing content but not position with this stream.
+   */
+  ByteBuffer duplicateBuffer() {
+    return buffer.duplicate();
+  }
+
+  /**
+   * Returns a stream over the next <code>length</code> bytes, sharing content but not position with this stream,
+   * and advances this stream past them.
+   */
+  ByteBufferInputStream slice(int length) throws EOFException {
+    if (length > buffer.remaining()) {
+      throw new EOFException("Cannot slice " + length + " bytes from buffer, only " + buffer.remaining() + " bytes remaining.");
+    }
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return new ByteBufferInputStream(slice);
+  }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to a {@link WritableByteChannel} through a reusable direct buffer. Small writes, such as the header fields
+ * and section frames, are collected in the buffer; a write not fitting into it is passed to the channel together with
+ * the buffered bytes in a single gathering write, so each package section costs one system call rather than one per
+ * frame field.
+ * <p/>
+ * Closing the stream flushes it, but leaves the channel open.
+ *
+ * @see #allocateBuffer()
+ */
+class ChannelOutputStream extends OutputStream {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+
+  ChannelOutputStream(WritableByteChannel channel) {
+    this(channel, allocateBuffer());
+  }
+
+  /**
+   * @param buffer a buffer from {@link #allocateBuffer()}, reused for successive streams. Bytes left in it by an earlier
+   * stream are discarded.
+   */
+  ChannelOutputStream(WritableByteChannel channel, ByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+    buffer.clear();
+  }
+
+  static ByteBuffer allocateBuffer() {
+    return ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    buffer.put((byte) b);
+    if (!buffer.hasRemaining()) {
+      flush();
+    }
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    if (length < buffer.remaining()) {
+      buffer.put(bytes, offset, length);
+      return;
+    }
+    final ByteBuffer data = ByteBuffer.wrap(bytes, offset, length);
+    buffer.flip();
+    if (channel instanceof GatheringByteChannel) {
+      final ByteBuffer[] buffers = new ByteBuffer[] {buffer, data};
+      while (data.hasRemaining()) {
+        ((GatheringByteChannel) channel).write(buffers);
+      }
+    }
+    else {
+      writeFully(buffer);
+      writeFully(data);
+    }
+    buffer.clear();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+  }
+}
@@ -18,9 +18,28 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio.internal;
 
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+
 public class DroolsKnowledgeModuleHeader {
 
   public byte[] magic = new byte[KnowledgeModule.FILE_MAGIC.length];
   public long fileFormatVersion;
   public String droolsRuntimeVersion = "";
+  public byte compressionCodecId = CompressionCodecs.GZIP_ID;
+  public byte moduleKind = KnowledgeModule.MODULE_KIND_FULL;
+
+  /** Digest of the module a delta module applies to, <code>null</code> for full modules. */
+  public byte[] baseModuleDigest = null;
+
+  public byte packageSerializerId = PackageSerializers.JAVA_ID;
+
+  /** Whether the sections start with a knowledge base snapshot, see {@link KnowledgeModule#SECTION_KNOWLEDGE_BASE}. */
+  public byte snapshotKind = KnowledgeModule.SNAPSHOT_NONE;
+
+  /** Checksum recorded after the header, <code>-1</code> for modules written before file format 7. */
+  public long checksum = ModuleChecksums.NONE;
+
+  /** Checksum of the header bytes as read. */
+  public long computedChecksum;
 }
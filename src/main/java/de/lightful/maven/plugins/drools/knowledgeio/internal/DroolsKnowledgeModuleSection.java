@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgePackageManifest;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeRuleManifest;
+
+import java.util.List;
+
+/**
+ * Entry of the section index of an indexed knowledge module: where to find the compressed data of one knowledge package.
+ */
+public class DroolsKnowledgeModuleSection {
+
+  public String packageName;
+
+  /** Offset of the section data, counted in bytes from the start of the module. */
+  public long offset;
+
+  /** Length of the section data in bytes. */
+  public long length;
+
+  /** Number of rules in the package, {@link #UNKNOWN} for modules written before file format 4. */
+  public int ruleCount = UNKNOWN;
+
+  /** Number of type declarations in the package, {@link #UNKNOWN} for modules written before file format 4. */
+  public int typeDeclarationCount = UNKNOWN;
+
+  /** CRC-32 checksum of the section data, <code>-1</code> for modules written before file format 7. */
+  public long checksum = ModuleChecksums.NONE;
+
+  /** Rules of the package, <code>null</code> if not recorded, e.g. for modules written before file format 9. */
+  public List<KnowledgeRuleManifest> rules = null;
+
+  public static final int UNKNOWN = KnowledgePackageManifest.UNKNOWN;
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleWriter;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import org.drools.KnowledgeBase;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Writes each module to a temporary file next to the module file and renames it to the module file once it is
+ * completely written, so readers see either the previous module or the new one, never a partially written module.
+ * A failed write leaves an existing module file untouched and removes the temporary file.
+ * <p/>
+ * The temporary file is forced to disk before it is renamed, so that a crash cannot persist the rename without the
+ * module data. On platforms which cannot rename onto an existing file, the module file is deleted first and the
+ * replacement is not atomic.
+ * <p/>
+ * All writes of an instance go through the same direct buffer, allocated on the first write; instances are not
+ * thread-safe.
+ */
+public class FileKnowledgeModuleWriterImpl implements KnowledgeModuleWriter {
+
+  private final File moduleFile;
+  private final CompressionCodec compressionCodec;
+  private final PackageSerializer packageSerializer;
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+  private ByteBuffer buffer;
+
+  public FileKnowledgeModuleWriterImpl(File moduleFile, CompressionCodec compressionCodec, PackageSerializer packageSerializer) {
+    this.moduleFile = moduleFile;
+    this.compressionCodec = compressionCodec;
+    this.packageSerializer = packageSerializer;
+  }
+
+  /**
+   * @param listeners receive the timings of all following writes.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * @param packageSerializers resolve the package serializer recorded in base modules of deltas.
+   */
+  public void setPackageSerializers(PackageSerializerRegistry packageSerializers) {
+    this.packageSerializers = packageSerializers;
+  }
+
+  public void writeKnowledgePackages(final Iterable<KnowledgePackage> knowledgePackages) throws IOException {
+    write(new ModuleWrite() {
+      void writeTo(KnowledgeModuleWriter writer) throws IOException {
+        writer.writeKnowledgePackages(knowledgePackages);
+      }
+    });
+  }
+
+  public void writeKnowledgeBase(final KnowledgeBase knowledgeBase) throws IOException {
+    write(new ModuleWrite() {
+      void writeTo(KnowledgeModuleWriter writer) throws IOException {
+        writer.writeKnowledgeBase(knowledgeBase);
+      }
+    });
+  }
+
+  public void writeDelta(final byte[] baseModuleDigest, final Iterable<KnowledgePackage> changedPackages, final Set<String> removedPackageNames) throws IOException {
+    write(new ModuleWrite() {
+      void writeTo(KnowledgeModuleWriter writer) throws IOException {
+        writer.writeDelta(baseModuleDigest, changedPackages, removedPackageNames);
+      }
+    });
+  }
+
+  public void writeDelta(final File baseModule, final Iterable<KnowledgePackage> knowledgePackages) throws IOException {
+    write(new ModuleWrite() {
+      void writeTo(KnowledgeModuleWriter writer) throws IOException {
+        writer.writeDelta(baseModule, knowledgePackages);
+      }
+    });
+  }
+
+  private void write(ModuleWrite moduleWrite) throws IOException {
+    final File temporaryFile = File.createTempFile(moduleFile.getName() + ".", ".tmp", moduleFile.getAbsoluteFile().getParentFile());
+    boolean renamed = false;
+    try {
+      if (buffer == null) {
+        buffer = ChannelOutputStream.allocateBuffer();
+      }
+      final FileOutputStream fileOutput = new FileOutputStream(temporaryFile);
+      try {
+        final ChannelOutputStream channelOutput = new ChannelOutputStream(fileOutput.getChannel(), buffer);
+        final KnowledgeModuleWriterImpl writer = new KnowledgeModuleWriterImpl(channelOutput, compressionCodec, packageSerializer);
+        writer.setKnowledgeIoListeners(listeners);
+        writer.setPackageSerializers(packageSerializers);
+        moduleWrite.writeTo(writer);
+        channelOutput.flush();
+        fileOutput.getChannel().force(true);
+      }
+      finally {
+        fileOutput.close();
+      }
+      renameTo(temporaryFile, moduleFile);
+      renamed = true;
+    }
+    finally {
+      if (!renamed) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  private static void renameTo(File temporaryFile, File moduleFile) throws IOException {
+    if (temporaryFile.renameTo(moduleFile)) {
+      return;
+    }
+    if (!moduleFile.delete() || !temporaryFile.renameTo(moduleFile)) {
+      throw new IOException("Cannot rename " + temporaryFile + " to " + moduleFile + ".");
+    }
+  }
+
+  private abstract static class ModuleWrite {
+
+    abstract void writeTo(KnowledgeModuleWriter writer) throws IOException;
+  }
+}
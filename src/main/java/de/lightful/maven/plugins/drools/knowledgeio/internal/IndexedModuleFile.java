@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.IllegalFileFormatException;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileFormatVersionException;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * An open module file in the indexed file format, with its header and section index read. Section data is left on disk,
+ * to be accessed through {@link #getChannel()} at the offsets recorded in the index.
+ */
+class IndexedModuleFile {
+
+  static final long CURRENT_FILE_FORMAT_VERSION = ByteBuffer.wrap(KnowledgeModule.CURRENT_FILE_FORMAT).getLong();
+  private static final int TRAILER_LENGTH = Long.SIZE / 8;
+
+  private final File moduleFile;
+  private final RandomAccessFile file;
+  private DroolsKnowledgeModuleHeader header;
+  private long headerLength;
+  private long indexOffset;
+  private List<DroolsKnowledgeModuleSection> sections;
+
+  private IndexedModuleFile(File moduleFile, RandomAccessFile file) {
+    this.moduleFile = moduleFile;
+    this.file = file;
+  }
+
+  /**
+   * Opens <code>moduleFile</code> and reads its header and section index.
+   *
+   * @param mode access mode as passed to {@link RandomAccessFile#RandomAccessFile(File, String)}.
+   * @param versionCheckStrategy how to check the Drools runtime version recorded in the header; <code>null</code> to
+   * skip the check, e.g. when sections are only copied.
+   * @throws InvalidFileFormatVersionException if the module uses the monolithic file format, which has no section index.
+   */
+  static IndexedModuleFile open(File moduleFile, String mode, VersionCheckStrategy versionCheckStrategy) throws IOException {
+    final IndexedModuleFile indexedModuleFile = new IndexedModuleFile(moduleFile, new RandomAccessFile(moduleFile, mode));
+    try {
+      indexedModuleFile.readHeader(versionCheckStrategy);
+      indexedModuleFile.readIndexOffset();
+      indexedModuleFile.readSectionIndex();
+      return indexedModuleFile;
+    }
+    catch (IOException e) {
+      indexedModuleFile.close();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      indexedModuleFile.close();
+      throw e;
+    }
+  }
+
+  File getModuleFile() {
+    return moduleFile;
+  }
+
+  DroolsKnowledgeModuleHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * @return offset of the section index; the end-of-sections marker is the byte just before it.
+   */
+  long getIndexOffset() {
+    return indexOffset;
+  }
+
+  List<DroolsKnowledgeModuleSection> getSections() {
+    return sections;
+  }
+
+  /**
+   * Reads the frame of the knowledge base snapshot, which is not listed in the section index.
+   *
+   * @return the snapshot section, with offset, length and checksum of its data but without package name;
+   * <code>null</code> if the module holds no snapshot.
+   * @throws IllegalFileFormatException if the sections do not start with a snapshot or it exceeds the section data.
+   */
+  DroolsKnowledgeModuleSection readKnowledgeBaseSection() throws IOException {
+    if (header.snapshotKind == KnowledgeModule.SNAPSHOT_NONE) {
+      return null;
+    }
+    file.seek(headerLength);
+    if (file.readByte() != KnowledgeModule.SECTION_KNOWLEDGE_BASE) {
+      throw new IllegalFileFormatException("Knowledge module " + moduleFile + " announces a knowledge base snapshot, but its sections do not start with one.");
+    }
+    DroolsKnowledgeModuleSection section = new DroolsKnowledgeModuleSection();
+    section.length = file.readLong();
+    section.checksum = file.readInt() & 0xFFFFFFFFL;
+    section.offset = file.getFilePointer();
+    if (section.length < 0 || section.offset + section.length >= indexOffset) {
+      throw new IllegalFileFormatException("Knowledge base snapshot of illegal length " + section.length + " in knowledge module " + moduleFile + ".");
+    }
+    return section;
+  }
+
+  FileChannel getChannel() {
+    return file.getChannel();
+  }
+
+  void setLength(long length) throws IOException {
+    file.setLength(length);
+  }
+
+  void close() throws IOException {
+    file.close();
+  }
+
+  private void readHeader(VersionCheckStrategy versionCheckStrategy) throws IOException {
+    // not closed: closing the stream would close the channel
+    final MeasuringInputStream inputStream = new MeasuringInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+    final KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(inputStream, null, null);
+    if (versionCheckStrategy == null) {
+      header = reader.readValidHeader();
+    }
+    else {
+      reader.readAndVerifyHeader(versionCheckStrategy);
+      header = reader.getFileHeader();
+    }
+    headerLength = inputStream.getCount();
+    if (header.fileFormatVersion == KnowledgeModule.FILE_FORMAT_MONOLITHIC) {
+      throw new InvalidFileFormatVersionException("Knowledge module " + moduleFile + " uses the monolithic file format, which has no section index.");
+    }
+  }
+
+  private void readIndexOffset() throws IOException {
+    final long length = file.length();
+    file.seek(length - TRAILER_LENGTH);
+    indexOffset = file.readLong();
+    if (indexOffset < 1 || indexOffset > length - TRAILER_LENGTH) {
+      throw new IllegalFileFormatException("Illegal section index offset " + indexOffset + " in trailer of knowledge module.");
+    }
+    file.seek(indexOffset - 1);
+    if (file.readByte() != KnowledgeModule.SECTION_END) {
+      throw new IllegalFileFormatException("Section index of knowledge module does not follow the end-of-sections marker.");
+    }
+  }
+
+  private void readSectionIndex() throws IOException {
+    final FileChannel channel = file.getChannel();
+    channel.position(indexOffset);
+    // not closed: closing the stream would close the channel
+    final DataInputStream indexInput = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    sections = SectionIndex.read(indexInput, header.fileFormatVersion, file.length() - TRAILER_LENGTH - indexOffset);
+  }
+}
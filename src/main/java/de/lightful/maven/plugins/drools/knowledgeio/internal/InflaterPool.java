@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps a bounded number of idle {@link Inflater}s for reuse. Inflaters which do not fit into the pool are ended,
+ * releasing their native memory right away instead of on finalization.
+ */
+class InflaterPool {
+
+  private final BlockingQueue<Inflater> idleInflaters;
+
+  InflaterPool(int maximumIdleInflaters) {
+    this.idleInflaters = new ArrayBlockingQueue<Inflater>(maximumIdleInflaters);
+  }
+
+  Inflater acquire() {
+    final Inflater inflater = idleInflaters.poll();
+    return inflater == null ? new Inflater() : inflater;
+  }
+
+  void release(Inflater inflater) {
+    inflater.reset();
+    if (!idleInflaters.offer(inflater)) {
+      inflater.end();
+    }
+  }
+}
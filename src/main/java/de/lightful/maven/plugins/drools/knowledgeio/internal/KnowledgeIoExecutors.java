@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the executor running asynchronous reads for which no executor was given.
+ */
+class KnowledgeIoExecutors {
+
+  private KnowledgeIoExecutors() {
+  }
+
+  /**
+   * @return an executor starting one virtual thread per task on JVMs supporting virtual threads; otherwise an
+   * unbounded pool of daemon threads, which are discarded after being idle for a minute.
+   */
+  static Executor defaultExecutor() {
+    return DefaultExecutorHolder.DEFAULT_EXECUTOR;
+  }
+
+  private static Executor createDefaultExecutor() {
+    final Executor virtualThreadExecutor = createVirtualThreadExecutor();
+    if (virtualThreadExecutor != null) {
+      return virtualThreadExecutor;
+    }
+    return Executors.newCachedThreadPool(new DaemonThreadFactory());
+  }
+
+  /**
+   * Looks up the virtual thread executor reflectively, as it is not available at the source level of this library.
+   *
+   * @return <code>null</code> if the JVM does not support virtual threads.
+   */
+  private static Executor createVirtualThreadExecutor() {
+    try {
+      final Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (Executor) factoryMethod.invoke(null);
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
+    catch (IllegalAccessException e) {
+      return null;
+    }
+    catch (InvocationTargetException e) {
+      // e.g. virtual threads being a preview feature which is not enabled
+      return null;
+    }
+  }
+
+  private static class DefaultExecutorHolder {
+
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "knowledge-io-reader-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoListener;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches events to registered listeners. Readers and writers only measure byte counts if
+ * {@link #isEmpty()} is false, so instrumentation costs nothing while no listener is registered.
+ */
+public class KnowledgeIoListeners implements KnowledgeIoListener {
+
+  private final List<KnowledgeIoListener> listeners = new CopyOnWriteArrayList<KnowledgeIoListener>();
+
+  public void add(KnowledgeIoListener listener) {
+    listeners.add(listener);
+  }
+
+  public void remove(KnowledgeIoListener listener) {
+    listeners.remove(listener);
+  }
+
+  public boolean isEmpty() {
+    return listeners.isEmpty();
+  }
+
+  public void phaseCompleted(KnowledgeIoEvent event) {
+    for (KnowledgeIoListener listener : listeners) {
+      listener.phaseCompleted(event);
+    }
+  }
+
+  void phaseCompleted(KnowledgeIoPhase phase, String packageName, long startNanos, long endNanos,
+                      long compressedBytes, long uncompressedBytes, int packageCount) {
+    if (!isEmpty()) {
+      phaseCompleted(new KnowledgeIoEvent(phase, packageName, startNanos, endNanos, compressedBytes, uncompressedBytes, packageCount));
+    }
+  }
+}
@@ -21,5 +21,82 @@ package de.lightful.maven.plugins.drools.knowledgeio.internal;
 public interface KnowledgeModule {
 
   public static final byte[] FILE_MAGIC = new byte[] {'D', 'R', 'L', 'K', 'M', 'O', 'D', 0x00};
-  public static final byte[] CURRENT_FILE_FORMAT = new byte[] {0, 0, 0, 0, 0, 0, 0, 1};
+  public static final byte[] CURRENT_FILE_FORMAT = new byte[] {0, 0, 0, 0, 0, 0, 0, 9};
+
+  /**
+   * Header, followed by one compressed collection holding all knowledge packages.
+   */
+  public static final long FILE_FORMAT_MONOLITHIC = 1;
+
+  /**
+   * Header, followed by one framed, individually compressed section per knowledge package,
+   * an end-of-sections marker, the section index and a trailer holding the offset of the section index.
+   */
+  public static final long FILE_FORMAT_INDEXED = 2;
+
+  /**
+   * Like {@link #FILE_FORMAT_INDEXED}, with the id of the compression codec used for all sections
+   * recorded as one byte after the Drools runtime version in the header.
+   */
+  public static final long FILE_FORMAT_WITH_COMPRESSION_CODEC = 3;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_COMPRESSION_CODEC}, with the rule count and type declaration count of each package
+   * appended to its entry in the section index, so that the index doubles as manifest of the module.
+   */
+  public static final long FILE_FORMAT_WITH_MANIFEST = 4;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_MANIFEST}, with a module kind byte after the compression codec id in the header.
+   * Delta modules follow it with the digest of their base module (short length, then digest bytes) and may contain
+   * sections marking packages of the base module as removed.
+   */
+  public static final long FILE_FORMAT_WITH_MODULE_KIND = 5;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_MODULE_KIND}, with the id of the package serializer used for all sections
+   * as the last byte of the header.
+   */
+  public static final long FILE_FORMAT_WITH_PACKAGE_SERIALIZER = 6;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_PACKAGE_SERIALIZER}, with CRC-32 checksums: one (int) after the header covering all
+   * header bytes, one after the length in each package section frame and in each section index entry covering the
+   * section data, and one after the section index covering the index entries.
+   */
+  public static final long FILE_FORMAT_WITH_CHECKSUMS = 7;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_CHECKSUMS}, with a snapshot kind byte after the package serializer id in the header.
+   * Modules with a knowledge base snapshot start their sections with one {@link #SECTION_KNOWLEDGE_BASE} section,
+   * which is not listed in the section index.
+   */
+  public static final long FILE_FORMAT_WITH_KNOWLEDGE_BASE_SNAPSHOT = 8;
+
+  /**
+   * Like {@link #FILE_FORMAT_WITH_KNOWLEDGE_BASE_SNAPSHOT}, with the rules of each package appended to its entry in the
+   * section index, before the index checksum: rule count (int, <code>-1</code> if not recorded), then per rule its name,
+   * agenda group, meta attribute count (short) and meta attribute keys and values.
+   */
+  public static final long FILE_FORMAT_WITH_RULE_MANIFEST = 9;
+
+  public static final byte MODULE_KIND_FULL = 0;
+  public static final byte MODULE_KIND_DELTA = 1;
+
+  public static final byte SNAPSHOT_NONE = 0;
+  public static final byte SNAPSHOT_KNOWLEDGE_BASE = 1;
+
+  public static final byte SECTION_END = 0;
+  public static final byte SECTION_KNOWLEDGE_PACKAGE = 1;
+
+  /**
+   * Section kind of delta modules: package name only, no length and no data.
+   */
+  public static final byte SECTION_REMOVED_PACKAGE = 2;
+
+  /**
+   * Section holding the fully built knowledge base: length, checksum and data like a package section, but no name.
+   * The data is the knowledge base as serialized by Drools, compressed with the codec of the module.
+   */
+  public static final byte SECTION_KNOWLEDGE_BASE = 3;
 }
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleBatch;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleBatchLoader;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.LoadedKnowledgeModule;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs at most <code>parallelism</code> workers per batch, the calling thread being one of them. Each worker takes the
+ * next module file not yet taken, maps it into memory, digests it and, unless a module of the same digest has been
+ * taken before, loads it with a shared {@link KnowledgeModuleLoaderImpl}.
+ */
+public class KnowledgeModuleBatchLoaderImpl implements KnowledgeModuleBatchLoader {
+
+  private final KnowledgeModuleLoaderImpl loader;
+  private final int parallelism;
+  private final Executor executor;
+
+  /**
+   * @param executor runs all workers but the calling thread; <code>null</code> to use the executor shared with
+   * asynchronous reads.
+   */
+  public KnowledgeModuleBatchLoaderImpl(KnowledgeModuleLoaderImpl loader, int parallelism, Executor executor) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1, but was " + parallelism + ".");
+    }
+    this.loader = loader;
+    this.parallelism = parallelism;
+    this.executor = executor == null ? KnowledgeIoExecutors.defaultExecutor() : executor;
+  }
+
+  public KnowledgeModuleBatch load(List<File> moduleFiles, ClassLoader classLoader) throws IOException {
+    final long startNanos = System.nanoTime();
+    final BatchLoad batchLoad = new BatchLoad(new ArrayList<File>(moduleFiles), classLoader);
+    final int workerCount = Math.max(1, Math.min(parallelism, moduleFiles.size()));
+    final CountDownLatch workersDone = new CountDownLatch(workerCount);
+    for (int i = 1; i < workerCount; i++) {
+      try {
+        executor.execute(new Worker(batchLoad, workersDone));
+      }
+      catch (RejectedExecutionException e) {
+        // the remaining workers take over the modules of this one
+        workersDone.countDown();
+      }
+    }
+    new Worker(batchLoad, workersDone).run();
+    try {
+      workersDone.await();
+    }
+    catch (InterruptedException e) {
+      batchLoad.fail(null, e);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for knowledge modules to load.");
+    }
+    batchLoad.ensureNoModuleFailed();
+    return new KnowledgeModuleBatch(batchLoad.collectLoadedModules(), System.nanoTime() - startNanos);
+  }
+
+  private class Worker implements Runnable {
+
+    private final BatchLoad batchLoad;
+    private final CountDownLatch workersDone;
+
+    private Worker(BatchLoad batchLoad, CountDownLatch workersDone) {
+      this.batchLoad = batchLoad;
+      this.workersDone = workersDone;
+    }
+
+    public void run() {
+      try {
+        int moduleNumber;
+        while ((moduleNumber = batchLoad.takeNextModule()) >= 0) {
+          final File moduleFile = batchLoad.moduleFiles.get(moduleNumber);
+          try {
+            batchLoad.loadedModules[moduleNumber] = loadModule(batchLoad, moduleNumber);
+          }
+          catch (Throwable t) {
+            batchLoad.fail(moduleFile, t);
+          }
+        }
+      }
+      finally {
+        workersDone.countDown();
+      }
+    }
+  }
+
+  private ModuleLoad loadModule(BatchLoad batchLoad, int moduleNumber) throws IOException, ClassNotFoundException {
+    final long startNanos = System.nanoTime();
+    final ByteBuffer moduleBytes = MappedFiles.mapReadOnly(batchLoad.moduleFiles.get(moduleNumber));
+    final byte[] digest = ModuleDigests.digest(moduleBytes.duplicate());
+    final long digestedNanos = System.nanoTime();
+    // byte buffers compare by content, so the wrapped digest serves as key
+    final Integer firstModuleNumber = batchLoad.moduleNumbersByDigest.putIfAbsent(ByteBuffer.wrap(digest), moduleNumber);
+    if (firstModuleNumber != null) {
+      return new ModuleLoad(digest, firstModuleNumber, null, digestedNanos - startNanos, 0);
+    }
+    final Collection<KnowledgePackage> knowledgePackages = loader.load(moduleBytes, batchLoad.classLoader);
+    return new ModuleLoad(digest, -1, knowledgePackages, digestedNanos - startNanos, System.nanoTime() - digestedNanos);
+  }
+
+  /**
+   * State shared by the workers of one batch. Module loads are published to the calling thread by the latch all
+   * workers count down when done.
+   */
+  private static class BatchLoad {
+
+    private final List<File> moduleFiles;
+    private final ClassLoader classLoader;
+    private final ModuleLoad[] loadedModules;
+    private final ConcurrentMap<ByteBuffer, Integer> moduleNumbersByDigest = new ConcurrentHashMap<ByteBuffer, Integer>();
+    private final AtomicInteger nextModuleNumber = new AtomicInteger();
+    private final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+
+    private BatchLoad(List<File> moduleFiles, ClassLoader classLoader) {
+      this.moduleFiles = moduleFiles;
+      this.classLoader = classLoader;
+      this.loadedModules = new ModuleLoad[moduleFiles.size()];
+    }
+
+    /**
+     * @return number of the next module to load, <code>-1</code> if all modules are taken or a module has failed.
+     */
+    private int takeNextModule() {
+      if (failure.get() != null) {
+        return -1;
+      }
+      final int moduleNumber = nextModuleNumber.getAndIncrement();
+      return moduleNumber < moduleFiles.size() ? moduleNumber : -1;
+    }
+
+    private void fail(File moduleFile, Throwable cause) {
+      failure.compareAndSet(null, new Failure(moduleFile, cause));
+    }
+
+    private void ensureNoModuleFailed() {
+      final Failure firstFailure = failure.get();
+      if (firstFailure == null) {
+        return;
+      }
+      if (firstFailure.cause instanceof Error) {
+        throw (Error) firstFailure.cause;
+      }
+      throw new KnowledgeModuleReadException("Cannot load knowledge module " + firstFailure.moduleFile + ".", firstFailure.cause);
+    }
+
+    private List<LoadedKnowledgeModule> collectLoadedModules() {
+      List<LoadedKnowledgeModule> modules = new ArrayList<LoadedKnowledgeModule>(moduleFiles.size());
+      Map<String, File> moduleFilesByPackageName = new HashMap<String, File>();
+      for (int i = 0; i < loadedModules.length; i++) {
+        final ModuleLoad moduleLoad = loadedModules[i];
+        final File moduleFile = moduleFiles.get(i);
+        if (moduleLoad.duplicateOf >= 0) {
+          modules.add(new LoadedKnowledgeModule(moduleFile, moduleLoad.digest, moduleFiles.get(moduleLoad.duplicateOf),
+                                                loadedModules[moduleLoad.duplicateOf].knowledgePackages, moduleLoad.digestNanos, 0));
+          continue;
+        }
+        for (KnowledgePackage knowledgePackage : moduleLoad.knowledgePackages) {
+          final File otherModuleFile = moduleFilesByPackageName.put(knowledgePackage.getName(), moduleFile);
+          if (otherModuleFile != null) {
+            throw new IllegalArgumentException("Package '" + knowledgePackage.getName() + "' is contained in knowledge modules " + otherModuleFile
+                                               + " and " + moduleFile + ", which differ in content.");
+          }
+        }
+        modules.add(new LoadedKnowledgeModule(moduleFile, moduleLoad.digest, null, moduleLoad.knowledgePackages, moduleLoad.digestNanos, moduleLoad.loadNanos));
+      }
+      return modules;
+    }
+  }
+
+  private static class ModuleLoad {
+
+    private final byte[] digest;
+    private final int duplicateOf;
+    private final Collection<KnowledgePackage> knowledgePackages;
+    private final long digestNanos;
+    private final long loadNanos;
+
+    /**
+     * @param duplicateOf number of the module loaded instead of this one, <code>-1</code> if this module was loaded.
+     */
+    private ModuleLoad(byte[] digest, int duplicateOf, Collection<KnowledgePackage> knowledgePackages, long digestNanos, long loadNanos) {
+      this.digest = digest;
+      this.duplicateOf = duplicateOf;
+      this.knowledgePackages = knowledgePackages == null ? Collections.<KnowledgePackage>emptyList() : knowledgePackages;
+      this.digestNanos = digestNanos;
+      this.loadNanos = loadNanos;
+    }
+  }
+
+  private static class Failure {
+
+    private final File moduleFile;
+    private final Throwable cause;
+
+    private Failure(File moduleFile, Throwable cause) {
+      this.moduleFile = moduleFile;
+      this.cause = cause;
+    }
+  }
+}
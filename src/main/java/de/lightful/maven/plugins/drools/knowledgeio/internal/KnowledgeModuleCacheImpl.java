@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleCache;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class KnowledgeModuleCacheImpl implements KnowledgeModuleCache {
+
+  private final KnowledgeIoFactory knowledgeIoFactory;
+  private final int maximumModules;
+  private final VersionCheckStrategy versionCheckStrategy;
+
+  /**
+   * Completed and in-flight loads in access order, guarded by <code>this</code>.
+   */
+  private final LinkedHashMap<ModuleKey, FutureTask<Collection<KnowledgePackage>>> modules;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  public KnowledgeModuleCacheImpl(KnowledgeIoFactory knowledgeIoFactory, int maximumModules, VersionCheckStrategy versionCheckStrategy) {
+    if (maximumModules < 1) {
+      throw new IllegalArgumentException("Cache must hold at least one module, but maximum was " + maximumModules + ".");
+    }
+    this.knowledgeIoFactory = knowledgeIoFactory;
+    this.maximumModules = maximumModules;
+    this.versionCheckStrategy = versionCheckStrategy;
+    this.modules = new LinkedHashMap<ModuleKey, FutureTask<Collection<KnowledgePackage>>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ModuleKey, FutureTask<Collection<KnowledgePackage>>> eldest) {
+        if (size() > KnowledgeModuleCacheImpl.this.maximumModules) {
+          evictionCount++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public Collection<KnowledgePackage> readKnowledgePackages(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    final byte[] moduleBytes = readFully(inputStream);
+    final ModuleKey key = new ModuleKey(ModuleDigests.digest(ByteBuffer.wrap(moduleBytes)), classLoader);
+    return lookUpOrLoad(key, new Callable<Collection<KnowledgePackage>>() {
+      public Collection<KnowledgePackage> call() throws Exception {
+        return load(new ByteArrayInputStream(moduleBytes), key.classLoader);
+      }
+    });
+  }
+
+  public Collection<KnowledgePackage> readKnowledgePackages(File moduleFile, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    final ByteBuffer moduleBytes = MappedFiles.readFully(moduleFile);
+    final ModuleKey key = new ModuleKey(ModuleDigests.digest(moduleBytes.duplicate()), classLoader);
+    return lookUpOrLoad(key, new Callable<Collection<KnowledgePackage>>() {
+      public Collection<KnowledgePackage> call() throws Exception {
+        return load(new ByteBufferInputStream(moduleBytes.duplicate()), key.classLoader);
+      }
+    });
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public synchronized int size() {
+    return modules.size();
+  }
+
+  public synchronized void clear() {
+    modules.clear();
+  }
+
+  private Collection<KnowledgePackage> load(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    final Collection<KnowledgePackage> knowledgePackages = knowledgeIoFactory.createKnowledgeModuleReader(inputStream, classLoader).readKnowledgePackages(versionCheckStrategy);
+    return Collections.unmodifiableCollection(knowledgePackages);
+  }
+
+  private Collection<KnowledgePackage> lookUpOrLoad(ModuleKey key, Callable<Collection<KnowledgePackage>> loader) throws IOException, ClassNotFoundException {
+    FutureTask<Collection<KnowledgePackage>> load;
+    boolean mustLoad = false;
+    synchronized (this) {
+      load = modules.get(key);
+      if (load == null) {
+        load = new FutureTask<Collection<KnowledgePackage>>(loader);
+        modules.put(key, load);
+        missCount++;
+        mustLoad = true;
+      }
+      else {
+        hitCount++;
+      }
+    }
+    if (mustLoad) {
+      load.run();
+    }
+    try {
+      return awaitLoad(load);
+    }
+    catch (IOException e) {
+      forgetFailedLoad(key, load);
+      throw e;
+    }
+    catch (ClassNotFoundException e) {
+      forgetFailedLoad(key, load);
+      throw e;
+    }
+    catch (RuntimeException e) {
+      forgetFailedLoad(key, load);
+      throw e;
+    }
+  }
+
+  private synchronized void forgetFailedLoad(ModuleKey key, FutureTask<Collection<KnowledgePackage>> load) {
+    if (modules.get(key) == load) {
+      modules.remove(key);
+    }
+  }
+
+  private Collection<KnowledgePackage> awaitLoad(FutureTask<Collection<KnowledgePackage>> load) throws IOException, ClassNotFoundException {
+    try {
+      return load.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for knowledge module to be loaded.");
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof ClassNotFoundException) {
+        throw (ClassNotFoundException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new KnowledgeModuleReadException("Cannot load knowledge module.", cause);
+    }
+  }
+
+  private static byte[] readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream moduleBytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int lengthRead;
+    while ((lengthRead = inputStream.read(buffer)) >= 0) {
+      moduleBytes.write(buffer, 0, lengthRead);
+    }
+    return moduleBytes.toByteArray();
+  }
+
+  /**
+   * Module digest plus class loader identity: the same bytes deserialized by different class loaders yield
+   * incompatible packages.
+   */
+  private static class ModuleKey {
+
+    private final byte[] digest;
+    private final ClassLoader classLoader;
+
+    private ModuleKey(byte[] digest, ClassLoader classLoader) {
+      this.digest = digest;
+      this.classLoader = classLoader;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ModuleKey)) {
+        return false;
+      }
+      ModuleKey otherKey = (ModuleKey) other;
+      return classLoader == otherKey.classLoader && Arrays.equals(digest, otherKey.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(digest) + System.identityHashCode(classLoader);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleLoader;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Creates a lightweight reader per load and hands it the state shared between loads: the Drools runtime looked up
+ * at construction, an inflater pool and a pool of read buffers.
+ */
+public class KnowledgeModuleLoaderImpl implements KnowledgeModuleLoader {
+
+  private static final int INITIAL_BUFFER_LENGTH = 64 * 1024;
+  private static final int MAXIMUM_POOLED_BUFFER_LENGTH = 16 * 1024 * 1024;
+  private static final long MAXIMUM_POOLED_BUFFER_BYTES = 32 * 1024 * 1024;
+
+  private final VersionCheckStrategy versionCheckStrategy;
+  private final DroolsRuntime droolsRuntime = DroolsRuntime.lookUp();
+  private final InflaterPool inflaterPool;
+  private final ByteArrayPool bufferPool;
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+
+  public KnowledgeModuleLoaderImpl(VersionCheckStrategy versionCheckStrategy) {
+    this(versionCheckStrategy, new ByteArrayPool(MAXIMUM_POOLED_BUFFER_BYTES, MAXIMUM_POOLED_BUFFER_LENGTH));
+  }
+
+  KnowledgeModuleLoaderImpl(VersionCheckStrategy versionCheckStrategy, ByteArrayPool bufferPool) {
+    this.versionCheckStrategy = versionCheckStrategy;
+    this.inflaterPool = new InflaterPool(2 * Runtime.getRuntime().availableProcessors());
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * @param listeners receive the timings of all following loads.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * @param packageSerializers resolve the package serializers recorded in module headers.
+   */
+  public void setPackageSerializers(PackageSerializerRegistry packageSerializers) {
+    this.packageSerializers = packageSerializers;
+  }
+
+  public Collection<KnowledgePackage> load(File moduleFile, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    return load(MappedFiles.mapReadOnly(moduleFile), classLoader);
+  }
+
+  public Collection<KnowledgePackage> load(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    byte[] buffer = bufferPool.acquire(INITIAL_BUFFER_LENGTH);
+    try {
+      int length = 0;
+      int lengthRead;
+      while ((lengthRead = inputStream.read(buffer, length, buffer.length - length)) >= 0) {
+        length += lengthRead;
+        if (length == buffer.length) {
+          final byte[] grownBuffer = new byte[2 * buffer.length];
+          System.arraycopy(buffer, 0, grownBuffer, 0, length);
+          // the outgrown buffer is dropped: pooling it would hand later loads a buffer they have to grow again
+          buffer = grownBuffer;
+        }
+      }
+      // packages do not refer to the buffer once deserialized, so it can be reused right after loading
+      return load(ByteBuffer.wrap(buffer, 0, length), classLoader);
+    }
+    finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+  /**
+   * Reads all knowledge packages from <code>moduleBytes</code>, e.g. a mapped module file.
+   */
+  Collection<KnowledgePackage> load(ByteBuffer moduleBytes, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+    final KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteBufferInputStream(moduleBytes), classLoader, null);
+    reader.setKnowledgeIoListeners(listeners);
+    reader.setPackageSerializers(packageSerializers);
+    reader.setDroolsRuntime(droolsRuntime);
+    reader.setInflaterPool(inflaterPool);
+    return reader.readKnowledgePackages(versionCheckStrategy);
+  }
+}
@@ -19,23 +19,47 @@
 package de.lightful.maven.plugins.drools.knowledgeio.internal;
 
 import de.lightful.maven.plugins.drools.knowledgeio.*;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
 import org.drools.core.util.DroolsStreamUtils;
 import org.drools.definition.KnowledgePackage;
-import org.drools.definitions.impl.KnowledgePackageImp;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.*;
-
-import static org.fest.assertions.Assertions.assertThat;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
 
-  private Set<Long> supportedVersions = Collections.singleton(1l);
+  private static final long CURRENT_FILE_FORMAT_VERSION = ByteBuffer.wrap(KnowledgeModule.CURRENT_FILE_FORMAT).getLong();
+
+  private Set<Long> supportedVersions = new HashSet<Long>(Arrays.asList(
+      KnowledgeModule.FILE_FORMAT_MONOLITHIC,
+      KnowledgeModule.FILE_FORMAT_INDEXED,
+      KnowledgeModule.FILE_FORMAT_WITH_COMPRESSION_CODEC,
+      KnowledgeModule.FILE_FORMAT_WITH_MANIFEST,
+      KnowledgeModule.FILE_FORMAT_WITH_MODULE_KIND,
+      KnowledgeModule.FILE_FORMAT_WITH_PACKAGE_SERIALIZER,
+      KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS,
+      KnowledgeModule.FILE_FORMAT_WITH_KNOWLEDGE_BASE_SNAPSHOT,
+      KnowledgeModule.FILE_FORMAT_WITH_RULE_MANIFEST));
 
   private InputStream inputStream;
   private ClassLoader classLoader;
+  private Executor executor;
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private DroolsRuntime droolsRuntime = null;
+  private InflaterPool inflaterPool = null;
+  private PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
   private DroolsKnowledgeModuleHeader header = null;
 
   public KnowledgeModuleReaderImpl(InputStream inputStream) {
@@ -43,8 +67,32 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
   }
 
   public KnowledgeModuleReaderImpl(InputStream inputStream, ClassLoader classLoader) {
+    this(inputStream, classLoader, null);
+  }
+
+  /**
+   * @param executor runs the deserialization of the packages of an indexed module concurrently while further sections
+   * are read from <code>inputStream</code>; <code>null</code> to deserialize on the calling thread.
+   */
+  public KnowledgeModuleReaderImpl(InputStream inputStream, ClassLoader classLoader, Executor executor) {
     this.inputStream = inputStream;
     this.classLoader = classLoader;
+    this.executor = executor;
+  }
+
+  /**
+   * Maps <code>moduleFile</code> into memory. Header and section frames are parsed from the mapped region and
+   * section data is inflated straight from it, without copying compressed data to the heap.
+   */
+  public KnowledgeModuleReaderImpl(File moduleFile, ClassLoader classLoader, Executor executor) throws IOException {
+    this(new ByteBufferInputStream(MappedFiles.mapReadOnly(moduleFile)), classLoader, executor);
+  }
+
+  /**
+   * @param listeners receive the timings of all following reads.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
   }
 
   public Collection<KnowledgePackage> readKnowledgePackages() throws IOException, ClassNotFoundException {
@@ -52,12 +100,253 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
   }
 
   public Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException {
-    if (this.header == null) {
-      this.header = readHeader();
+    return readKnowledgePackages(versionCheckStrategy, ValidationLevel.STRUCTURAL);
+  }
+
+  public Collection<KnowledgePackage> readKnowledgePackages(Set<String> packageNames) throws IOException, ClassNotFoundException {
+    return readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, packageNames);
+  }
+
+  /**
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  public Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) throws IOException, ClassNotFoundException {
+    return readKnowledgePackages(versionCheckStrategy, ValidationLevel.STRUCTURAL, packageNames);
+  }
+
+  public Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel) throws IOException, ClassNotFoundException {
+    return readKnowledgePackages(versionCheckStrategy, validationLevel, null);
+  }
+
+  /**
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  public Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel, Set<String> packageNames) throws IOException, ClassNotFoundException {
+    final long startNanos = System.nanoTime();
+    readAndVerifyHeader(versionCheckStrategy);
+    if (header.fileFormatVersion == KnowledgeModule.FILE_FORMAT_MONOLITHIC) {
+      final Collection<KnowledgePackage> knowledgePackages = selectKnowledgePackages(readContent(validationLevel), packageNames);
+      listeners.phaseCompleted(KnowledgeIoPhase.READ_MODULE, null, startNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, knowledgePackages.size());
+      return knowledgePackages;
+    }
+    final KnowledgePackageSectionIterator sectionIterator = createSectionIterator(validationLevel, packageNames);
+    final Collection<KnowledgePackage> knowledgePackages = readSections(sectionIterator);
+    listeners.phaseCompleted(KnowledgeIoPhase.READ_MODULE, null, startNanos, System.nanoTime(),
+                             sectionIterator.getCompressedBytes(), sectionIterator.getUncompressedBytes(), knowledgePackages.size());
+    return knowledgePackages;
+  }
+
+  /**
+   * Modules read from memory-mapped files have their section index read first, so that sections of packages without
+   * accepted rules are skipped; all other modules are deserialized completely before rules are removed.
+   */
+  public Collection<KnowledgePackage> readKnowledgePackages(VersionCheckStrategy versionCheckStrategy, RuleFilter ruleFilter) throws IOException, ClassNotFoundException {
+    readAndVerifyHeader(versionCheckStrategy);
+    Collection<KnowledgePackage> knowledgePackages = readKnowledgePackages(versionCheckStrategy, ValidationLevel.STRUCTURAL, selectPackagesWithAcceptedRules(ruleFilter));
+    Collection<KnowledgePackage> filteredPackages = new ArrayList<KnowledgePackage>(knowledgePackages.size());
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      if (RuleManifests.removeRejectedRules(knowledgePackage, ruleFilter)) {
+        filteredPackages.add(knowledgePackage);
+      }
+    }
+    return filteredPackages;
+  }
+
+  /**
+   * @return names of the packages which must be read to apply <code>ruleFilter</code>, <code>null</code> if rules
+   * cannot be inspected before reading the packages.
+   */
+  private Set<String> selectPackagesWithAcceptedRules(RuleFilter ruleFilter) throws IOException {
+    if (header.fileFormatVersion < KnowledgeModule.FILE_FORMAT_WITH_RULE_MANIFEST || !(inputStream instanceof ByteBufferInputStream)) {
+      return null;
+    }
+    final long startNanos = System.nanoTime();
+    final List<DroolsKnowledgeModuleSection> sections = SectionIndex.read(((ByteBufferInputStream) inputStream).duplicateBuffer(), header.fileFormatVersion);
+    listeners.phaseCompleted(KnowledgeIoPhase.READ_INDEX, null, startNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, sections.size());
+    Set<String> packageNames = new HashSet<String>();
+    for (DroolsKnowledgeModuleSection section : sections) {
+      if (RuleManifests.isReadRequired(section, ruleFilter)) {
+        packageNames.add(section.packageName);
+      }
+    }
+    return packageNames;
+  }
+
+  public KnowledgeBase readKnowledgeBase() throws IOException, ClassNotFoundException {
+    return readKnowledgeBase(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+  }
+
+  /**
+   * The snapshot is only restored on the exact Drools runtime version recorded in the header; otherwise the snapshot
+   * section is skipped and the packages are read as checked by <code>versionCheckStrategy</code>.
+   */
+  public KnowledgeBase readKnowledgeBase(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException {
+    readAndVerifyHeader(versionCheckStrategy);
+    if (header.snapshotKind == KnowledgeModule.SNAPSHOT_KNOWLEDGE_BASE && header.droolsRuntimeVersion.equals(currentDroolsRuntime().implementationVersion)) {
+      return createSectionIterator(ValidationLevel.STRUCTURAL, null).readKnowledgeBaseSnapshot();
+    }
+    final Collection<KnowledgePackage> knowledgePackages = readKnowledgePackages(versionCheckStrategy);
+    final long startNanos = System.nanoTime();
+    final KnowledgeBase knowledgeBase = classLoader == null ? KnowledgeBaseFactory.newKnowledgeBase()
+                                        : KnowledgeBaseFactory.newKnowledgeBase(KnowledgeBaseFactory.newKnowledgeBaseConfiguration(null, classLoader));
+    knowledgeBase.addKnowledgePackages(knowledgePackages);
+    listeners.phaseCompleted(KnowledgeIoPhase.BUILD_KNOWLEDGE_BASE, null, startNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN,
+                             knowledgePackages.size());
+    return knowledgeBase;
+  }
+
+  public Iterator<KnowledgePackage> iterateKnowledgePackages() throws IOException, ClassNotFoundException {
+    return iterateKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+  }
+
+  public Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy) throws IOException, ClassNotFoundException {
+    return iterateKnowledgePackages(versionCheckStrategy, null);
+  }
+
+  /**
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  public Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) throws IOException, ClassNotFoundException {
+    return iterateKnowledgePackages(versionCheckStrategy, ValidationLevel.STRUCTURAL, packageNames);
+  }
+
+  /**
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  public Iterator<KnowledgePackage> iterateKnowledgePackages(VersionCheckStrategy versionCheckStrategy, ValidationLevel validationLevel, Set<String> packageNames) throws IOException, ClassNotFoundException {
+    readAndVerifyHeader(versionCheckStrategy);
+    if (header.fileFormatVersion == KnowledgeModule.FILE_FORMAT_MONOLITHIC) {
+      return selectKnowledgePackages(readContent(validationLevel), packageNames).iterator();
     }
+    return createSectionIterator(validationLevel, packageNames);
+  }
+
+  public Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(Executor executor) {
+    return readKnowledgePackagesAsync(executor, VersionCheckStrategy.VERSIONS_MUST_MATCH, null);
+  }
+
+  /**
+   * @param executor runs the read, independent of the executor used for concurrent deserialization.
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  public Future<Collection<KnowledgePackage>> readKnowledgePackagesAsync(Executor executor, VersionCheckStrategy versionCheckStrategy, Set<String> packageNames) {
+    final AsyncKnowledgePackageRead read = new AsyncKnowledgePackageRead(this, versionCheckStrategy, packageNames);
+    (executor == null ? KnowledgeIoExecutors.defaultExecutor() : executor).execute(read);
+    return read;
+  }
+
+  /**
+   * Reads the header and the section index, skipping all section data. The Drools runtime version is not checked.
+   */
+  public KnowledgeModuleManifest readManifest() throws IOException {
+    ensureHeaderIsRead();
     ensureHeaderIsValid(header);
+    List<KnowledgePackageManifest> knowledgePackages = new ArrayList<KnowledgePackageManifest>();
+    Set<String> removedPackageNames = Collections.emptySet();
+    if (header.fileFormatVersion != KnowledgeModule.FILE_FORMAT_MONOLITHIC) {
+      KnowledgePackageSectionIterator sectionIterator = createSectionIterator(ValidationLevel.NONE, Collections.<String>emptySet());
+      for (DroolsKnowledgeModuleSection section : readSectionIndex(sectionIterator)) {
+        knowledgePackages.add(new KnowledgePackageManifest(section.packageName, section.length, section.ruleCount, section.typeDeclarationCount, section.rules));
+      }
+      removedPackageNames = sectionIterator.getRemovedPackageNames();
+    }
+    return new KnowledgeModuleManifest(header.fileFormatVersion, header.droolsRuntimeVersion, header.compressionCodecId, header.baseModuleDigest,
+                                       knowledgePackages, removedPackageNames);
+  }
+
+  public Collection<KnowledgePackage> applyDelta(byte[] baseModuleDigest, Collection<KnowledgePackage> basePackages) throws IOException, ClassNotFoundException {
+    readAndVerifyHeader(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    if (header.moduleKind != KnowledgeModule.MODULE_KIND_DELTA) {
+      throw new InvalidFileHeaderException("Cannot apply knowledge module as delta: it is a full module.");
+    }
+    if (baseModuleDigest != null && !Arrays.equals(baseModuleDigest, header.baseModuleDigest)) {
+      throw new InvalidBaseModuleException("Cannot apply delta module: it was written for another base module.");
+    }
+    final KnowledgePackageSectionIterator sectionIterator = createSectionIterator(ValidationLevel.STRUCTURAL, null);
+    final Collection<KnowledgePackage> changedPackages = readSections(sectionIterator);
+
+    Map<String, KnowledgePackage> knowledgePackages = new LinkedHashMap<String, KnowledgePackage>();
+    for (KnowledgePackage basePackage : basePackages) {
+      knowledgePackages.put(basePackage.getName(), basePackage);
+    }
+    for (String removedPackageName : sectionIterator.getRemovedPackageNames()) {
+      if (knowledgePackages.remove(removedPackageName) == null) {
+        throw new InvalidBaseModuleException("Cannot apply delta module: it removes package '" + removedPackageName + "', which is not among the base packages.");
+      }
+    }
+    for (KnowledgePackage changedPackage : changedPackages) {
+      knowledgePackages.put(changedPackage.getName(), changedPackage);
+    }
+    return new ArrayList<KnowledgePackage>(knowledgePackages.values());
+  }
+
+  /**
+   * Digests the uncompressed data of each package section, to compare the packages with those of another module
+   * without deserializing them.
+   *
+   * @return digests by package name, in module order.
+   */
+  Map<String, byte[]> readSerializedPackageDigests() throws IOException {
+    ensureHeaderIsRead();
+    ensureHeaderIsValid(header);
+    if (header.fileFormatVersion == KnowledgeModule.FILE_FORMAT_MONOLITHIC) {
+      throw new InvalidFileFormatVersionException("Cannot compare packages of a monolithic knowledge module without deserializing it.");
+    }
+    if (header.moduleKind == KnowledgeModule.MODULE_KIND_DELTA) {
+      throw new InvalidFileHeaderException("Cannot compare packages with a delta module: it holds changed packages only.");
+    }
+    final KnowledgePackageSectionIterator sectionIterator = createSectionIterator(ValidationLevel.NONE, null);
+    Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+    while (sectionIterator.hasNextSection()) {
+      final KnowledgePackageSectionIterator.SectionDeserializer section = sectionIterator.nextSectionDeserializer();
+      final InputStream serializedPackage = section.decompress();
+      try {
+        digests.put(section.getPackageName(), ModuleDigests.digest(serializedPackage));
+      }
+      finally {
+        serializedPackage.close();
+      }
+    }
+    return digests;
+  }
+
+  /**
+   * Skips all section data up to and including the end-of-sections marker, then reads the section index.
+   */
+  private List<DroolsKnowledgeModuleSection> readSectionIndex(KnowledgePackageSectionIterator sectionIterator) throws IOException {
+    // with no package selected, this walks all sections
+    sectionIterator.hasNextSection();
+    final long startNanos = System.nanoTime();
+    final List<DroolsKnowledgeModuleSection> sections = SectionIndex.read(new DataInputStream(inputStream), header.fileFormatVersion, SectionIndex.UNKNOWN_LENGTH);
+    listeners.phaseCompleted(KnowledgeIoPhase.READ_INDEX, null, startNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, sections.size());
+    return sections;
+  }
+
+  private KnowledgePackageSectionIterator createSectionIterator(ValidationLevel validationLevel, Set<String> packageNames) {
+    return new KnowledgePackageSectionIterator(inputStream, classLoader, resolveCompressionCodec(), resolvePackageSerializer(), header.fileFormatVersion,
+                                               validationLevel, packageNames, listeners);
+  }
+
+  void readAndVerifyHeader(VersionCheckStrategy versionCheckStrategy) throws IOException {
+    readValidHeader();
     ensureDroolsRuntimeMatches(header.droolsRuntimeVersion, versionCheckStrategy);
-    return readContent();
+  }
+
+  /**
+   * Reads and validates the header, regardless of the Drools runtime version recorded in it.
+   */
+  DroolsKnowledgeModuleHeader readValidHeader() throws IOException {
+    ensureHeaderIsRead();
+    ensureHeaderIsValid(header);
+    return header;
+  }
+
+  private void ensureHeaderIsRead() throws IOException {
+    if (this.header == null) {
+      final long startNanos = System.nanoTime();
+      this.header = readHeader();
+      listeners.phaseCompleted(KnowledgeIoPhase.READ_HEADER, null, startNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, 0);
+    }
   }
 
   DroolsKnowledgeModuleHeader getFileHeader() {
@@ -68,10 +357,35 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
     this.supportedVersions = supportedVersions;
   }
 
+  /**
+   * @param droolsRuntime runtime to check the module's runtime version against; <code>null</code> to look it up on each check.
+   */
+  void setDroolsRuntime(DroolsRuntime droolsRuntime) {
+    this.droolsRuntime = droolsRuntime;
+  }
+
+  /**
+   * @param packageSerializers resolve the package serializer recorded in the module header.
+   */
+  public void setPackageSerializers(PackageSerializerRegistry packageSerializers) {
+    this.packageSerializers = packageSerializers;
+  }
+
+  /**
+   * @param inflaterPool provides the inflaters for Deflate sections; <code>null</code> to create one per section.
+   */
+  void setInflaterPool(InflaterPool inflaterPool) {
+    this.inflaterPool = inflaterPool;
+  }
+
+  private DroolsRuntime currentDroolsRuntime() {
+    return droolsRuntime == null ? DroolsRuntime.lookUp() : droolsRuntime;
+  }
+
   private void ensureDroolsRuntimeMatches(String expectedRuntimeVersion, VersionCheckStrategy versionCheckStrategy) {
-    final Package droolsCorePackage = KnowledgePackageImp.class.getPackage();
-    final String implementationTitle = droolsCorePackage.getImplementationTitle();
-    final String implementationVersion = droolsCorePackage.getImplementationVersion();
+    final DroolsRuntime runtime = currentDroolsRuntime();
+    final String implementationTitle = runtime.implementationTitle;
+    final String implementationVersion = runtime.implementationVersion;
     switch (versionCheckStrategy) {
       case VERSIONS_MUST_MATCH:
         ensureVersionsMatch(expectedRuntimeVersion, implementationTitle, implementationVersion);
@@ -98,17 +412,42 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
     }
   }
 
+  /**
+   * While the header fields are read, {@link #inputStream} is replaced by a stream computing their checksum.
+   */
   private DroolsKnowledgeModuleHeader readHeader() throws IOException {
+    final InputStream moduleInput = inputStream;
+    final CRC32 checksum = new CRC32();
+    inputStream = new CheckedInputStream(moduleInput, checksum);
     try {
       DroolsKnowledgeModuleHeader header = new DroolsKnowledgeModuleHeader();
       header.magic = readFileMagic();
       header.fileFormatVersion = readFileFormatVersion();
       header.droolsRuntimeVersion = readDroolsRuntimeVersion();
+      if (isKnownVersionSince(header.fileFormatVersion, KnowledgeModule.FILE_FORMAT_WITH_COMPRESSION_CODEC)) {
+        header.compressionCodecId = readCompressionCodecId();
+      }
+      if (isKnownVersionSince(header.fileFormatVersion, KnowledgeModule.FILE_FORMAT_WITH_MODULE_KIND)) {
+        readModuleKind(header);
+      }
+      if (isKnownVersionSince(header.fileFormatVersion, KnowledgeModule.FILE_FORMAT_WITH_PACKAGE_SERIALIZER)) {
+        header.packageSerializerId = readPackageSerializerId();
+      }
+      if (isKnownVersionSince(header.fileFormatVersion, KnowledgeModule.FILE_FORMAT_WITH_KNOWLEDGE_BASE_SNAPSHOT)) {
+        header.snapshotKind = new DataInputStream(inputStream).readByte();
+      }
+      if (isKnownVersionSince(header.fileFormatVersion, KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS)) {
+        header.checksum = ModuleChecksums.read(new DataInputStream(moduleInput));
+      }
+      header.computedChecksum = checksum.getValue();
       return header;
     }
     catch (IOException ioe) {
       throw new IllegalFileFormatException("Cannot read file header from input stream.", ioe);
     }
+    finally {
+      inputStream = moduleInput;
+    }
   }
 
   private String readDroolsRuntimeVersion() throws IOException {
@@ -128,6 +467,61 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
     return new String(versionStringBytes, "UTF-8");
   }
 
+  /**
+   * Header fields introduced by later file formats are only parsed for versions this reader knows,
+   * so that unknown versions are reported as such by {@link #ensureHeaderIsValid(DroolsKnowledgeModuleHeader)}.
+   */
+  private boolean isKnownVersionSince(long fileFormatVersion, long introducingVersion) {
+    return fileFormatVersion >= introducingVersion && fileFormatVersion <= CURRENT_FILE_FORMAT_VERSION;
+  }
+
+  private byte readCompressionCodecId() throws IOException {
+    final int codecId = inputStream.read();
+    if (codecId < 0) {
+      throw new IllegalFileFormatException("Cannot read compression codec from input stream (unexpected end of input).");
+    }
+    return (byte) codecId;
+  }
+
+  private byte readPackageSerializerId() throws IOException {
+    final int serializerId = inputStream.read();
+    if (serializerId < 0) {
+      throw new IllegalFileFormatException("Cannot read package serializer from input stream (unexpected end of input).");
+    }
+    return (byte) serializerId;
+  }
+
+  private void readModuleKind(DroolsKnowledgeModuleHeader header) throws IOException {
+    final DataInputStream dataInput = new DataInputStream(inputStream);
+    header.moduleKind = dataInput.readByte();
+    if (header.moduleKind == KnowledgeModule.MODULE_KIND_DELTA) {
+      header.baseModuleDigest = new byte[dataInput.readUnsignedShort()];
+      dataInput.readFully(header.baseModuleDigest);
+    }
+  }
+
+  /**
+   * @throws InvalidFileHeaderException if the serializer recorded in the header is neither built in nor registered.
+   */
+  PackageSerializer resolvePackageSerializer() {
+    try {
+      return packageSerializers.forId(header.packageSerializerId);
+    }
+    catch (IllegalArgumentException e) {
+      throw new InvalidFileHeaderException("Unsupported package serializer in file header: " + header.packageSerializerId, e);
+    }
+  }
+
+  private CompressionCodec resolveCompressionCodec() {
+    try {
+      final CompressionCodec compressionCodec = CompressionCodecs.forId(header.compressionCodecId);
+      return inflaterPool == null ? compressionCodec : new PooledInflaterCompressionCodec(compressionCodec, inflaterPool);
+    }
+    catch (IllegalArgumentException e) {
+      throw new InvalidFileHeaderException("Unsupported compression codec in file header: " + header.compressionCodecId, e);
+    }
+  }
+
   private byte[] readFileMagic() throws IOException {
     byte[] magic = new byte[KnowledgeModule.FILE_MAGIC.length];
     final int lengthRead = inputStream.read(magic, 0, KnowledgeModule.FILE_MAGIC.length);
@@ -154,39 +548,148 @@ public class KnowledgeModuleReaderImpl implements KnowledgeModuleReader {
     if (!isSupportedVersion(header.fileFormatVersion)) {
       throw new InvalidFileFormatVersionException("Unsupported version of file format: " + header.fileFormatVersion);
     }
+    if (header.checksum != ModuleChecksums.NONE) {
+      ModuleChecksums.ensureChecksumMatches(header.checksum, header.computedChecksum, "file header");
+    }
     if (header.droolsRuntimeVersion.length() == 0) {
       throw new IllegalFileFormatException("Illegal drools runtime version in file header: must not be empty.");
     }
+    if (header.moduleKind != KnowledgeModule.MODULE_KIND_FULL && header.moduleKind != KnowledgeModule.MODULE_KIND_DELTA) {
+      throw new InvalidFileHeaderException("Unsupported module kind in file header: " + header.moduleKind);
+    }
+    if (header.snapshotKind != KnowledgeModule.SNAPSHOT_NONE && header.snapshotKind != KnowledgeModule.SNAPSHOT_KNOWLEDGE_BASE) {
+      throw new InvalidFileHeaderException("Unsupported snapshot kind in file header: " + header.snapshotKind);
+    }
+    if (header.snapshotKind != KnowledgeModule.SNAPSHOT_NONE && header.moduleKind == KnowledgeModule.MODULE_KIND_DELTA) {
+      throw new InvalidFileHeaderException("Delta modules cannot hold a knowledge base snapshot.");
+    }
   }
 
-  private Collection<KnowledgePackage> readContent() throws IOException, ClassNotFoundException {
-    Object streamedInObject = DroolsStreamUtils.streamIn(inputStream, classLoader, true);
-    assertThat(streamedInObject).as("object read from stream").isNotNull().isInstanceOf(Collection.class);
+  private Collection<KnowledgePackage> readContent(ValidationLevel validationLevel) throws IOException, ClassNotFoundException {
+    final long startNanos = System.nanoTime();
+    InputStream contentStream = inputStream;
+    MeasuringInputStream measuredContent = null;
+    if (!listeners.isEmpty()) {
+      measuredContent = new MeasuringInputStream(inputStream);
+      contentStream = measuredContent;
+    }
+    Object streamedInObject = DroolsStreamUtils.streamIn(contentStream, classLoader, true);
+    final long deserializedNanos = System.nanoTime();
+    if (validationLevel != ValidationLevel.NONE && !(streamedInObject instanceof Collection)) {
+      throw new IllegalFileFormatException("Expected a collection of knowledge packages as module content, but got " + describeType(streamedInObject) + ".");
+    }
 
     Collection loadedObjects = Collection.class.cast(streamedInObject);
-    ensureLoadedObjectsAreKnowledgePackages(loadedObjects);
+    if (measuredContent != null) {
+      listeners.phaseCompleted(KnowledgeIoPhase.DESERIALIZE, null, startNanos, deserializedNanos, measuredContent.getCount(), KnowledgeIoEvent.UNKNOWN, loadedObjects.size());
+    }
+    ensureLoadedObjectsAreKnowledgePackages(loadedObjects, validationLevel);
+    listeners.phaseCompleted(KnowledgeIoPhase.VALIDATE, null, deserializedNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, loadedObjects.size());
     Collection<KnowledgePackage> knowledgePackages = convertCollectionItemsToKnowledgePackages(loadedObjects);
     return knowledgePackages;
   }
 
+  private Collection<KnowledgePackage> selectKnowledgePackages(Collection<KnowledgePackage> knowledgePackages, Set<String> packageNames) {
+    if (packageNames == null) {
+      return knowledgePackages;
+    }
+    Collection<KnowledgePackage> selectedPackages = new ArrayList<KnowledgePackage>();
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      if (packageNames.contains(knowledgePackage.getName())) {
+        selectedPackages.add(knowledgePackage);
+      }
+    }
+    return selectedPackages;
+  }
+
+  private Collection<KnowledgePackage> readSections(KnowledgePackageSectionIterator sectionIterator) throws IOException, ClassNotFoundException {
+    if (executor != null) {
+      return readSectionsConcurrently(sectionIterator);
+    }
+    Collection<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>();
+    while (sectionIterator.hasNextSection()) {
+      knowledgePackages.add(sectionIterator.nextSection());
+    }
+    return knowledgePackages;
+  }
+
+  private Collection<KnowledgePackage> readSectionsConcurrently(KnowledgePackageSectionIterator sectionIterator) throws IOException, ClassNotFoundException {
+    List<Future<KnowledgePackage>> deserializations = new ArrayList<Future<KnowledgePackage>>();
+    try {
+      while (sectionIterator.hasNextSection()) {
+        FutureTask<KnowledgePackage> deserialization = new FutureTask<KnowledgePackage>(sectionIterator.nextSectionDeserializer());
+        deserializations.add(deserialization);
+        executor.execute(deserialization);
+      }
+      Collection<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>(deserializations.size());
+      for (Future<KnowledgePackage> deserialization : deserializations) {
+        knowledgePackages.add(awaitDeserialization(deserialization));
+      }
+      return knowledgePackages;
+    }
+    finally {
+      for (Future<KnowledgePackage> deserialization : deserializations) {
+        deserialization.cancel(false);
+      }
+    }
+  }
+
+  private KnowledgePackage awaitDeserialization(Future<KnowledgePackage> deserialization) throws IOException, ClassNotFoundException {
+    try {
+      return deserialization.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for knowledge packages to be deserialized.");
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof ClassNotFoundException) {
+        throw (ClassNotFoundException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new KnowledgeModuleReadException("Cannot deserialize knowledge package.", cause);
+    }
+  }
+
   private boolean isSupportedVersion(long fileFormatVersion) {
     return supportedVersions.contains(fileFormatVersion);
   }
 
-  private void ensureLoadedObjectsAreKnowledgePackages(Collection loadedObjects) {
+  /**
+   * Messages are only built on failure: a package's <code>toString()</code> can be expensive for big packages.
+   */
+  private void ensureLoadedObjectsAreKnowledgePackages(Collection loadedObjects, ValidationLevel validationLevel) {
+    if (validationLevel == ValidationLevel.NONE) {
+      return;
+    }
+    final Set<String> packageNames = validationLevel == ValidationLevel.FULL ? new HashSet<String>() : null;
     int i = 1;
     for (Object loadedObject : loadedObjects) {
-      assertThat(loadedObject)
-          .as("object #" + i + " from read collection (" + loadedObject.toString() + ")")
-          .isInstanceOf(KnowledgePackage.class);
+      if (!(loadedObject instanceof KnowledgePackage)) {
+        throw new IllegalFileFormatException("Expected a knowledge package as object #" + i + " of module content, but got " + describeType(loadedObject) + ".");
+      }
+      if (packageNames != null && !packageNames.add(((KnowledgePackage) loadedObject).getName())) {
+        throw new IllegalFileFormatException("Duplicate knowledge package '" + ((KnowledgePackage) loadedObject).getName() + "' in module content.");
+      }
       i++;
     }
   }
 
+  static String describeType(Object loadedObject) {
+    return loadedObject == null ? "null" : "an instance of " + loadedObject.getClass().getName();
+  }
+
   @SuppressWarnings("unchecked")
   private Collection<KnowledgePackage> convertCollectionItemsToKnowledgePackages(Collection loadedObjects) {
-    Collection<KnowledgePackage> knowledgePackages = new ArrayList<KnowledgePackage>();
-    knowledgePackages.addAll(loadedObjects);
-    return knowledgePackages;
+    return (Collection<KnowledgePackage>) loadedObjects;
   }
 }
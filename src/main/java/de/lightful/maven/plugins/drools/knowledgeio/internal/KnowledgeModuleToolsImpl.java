@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException;
+import de.lightful.maven.plugins.drools.knowledgeio.IllegalFileFormatException;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileFormatVersionException;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileHeaderException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleTools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies package sections between module files with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so that the operating system may move the data without copying it into the Java heap.
+ */
+public class KnowledgeModuleToolsImpl implements KnowledgeModuleTools {
+
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+
+  /**
+   * @param listeners receive the timings of all following writes.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
+  }
+
+  public void merge(List<File> sourceFiles, File targetFile) throws IOException {
+    if (sourceFiles.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one knowledge module to merge.");
+    }
+    List<IndexedModuleFile> sourceModules = new ArrayList<IndexedModuleFile>(sourceFiles.size());
+    try {
+      for (File sourceFile : sourceFiles) {
+        sourceModules.add(openSourceModule(sourceFile));
+      }
+      final IndexedModuleFile firstModule = sourceModules.get(0);
+      List<SectionCopy> sectionCopies = new ArrayList<SectionCopy>();
+      Set<String> packageNames = new HashSet<String>();
+      for (IndexedModuleFile sourceModule : sourceModules) {
+        ensureCompatibleModules(firstModule, sourceModule);
+        for (DroolsKnowledgeModuleSection section : sourceModule.getSections()) {
+          if (!packageNames.add(section.packageName)) {
+            throw new IllegalArgumentException("Package '" + section.packageName + "' is contained in more than one of the knowledge modules to merge.");
+          }
+          sectionCopies.add(new SectionCopy(sourceModule, section));
+        }
+      }
+      writeModule(targetFile, firstModule.getHeader(), sectionCopies);
+    }
+    finally {
+      for (IndexedModuleFile sourceModule : sourceModules) {
+        sourceModule.close();
+      }
+    }
+  }
+
+  public void split(File sourceFile, Map<File, Set<String>> packageNamesByTargetFile) throws IOException {
+    final IndexedModuleFile sourceModule = openSourceModule(sourceFile);
+    try {
+      Set<String> packageNames = new HashSet<String>();
+      for (DroolsKnowledgeModuleSection section : sourceModule.getSections()) {
+        packageNames.add(section.packageName);
+      }
+      for (Set<String> selectedPackageNames : packageNamesByTargetFile.values()) {
+        for (String selectedPackageName : selectedPackageNames) {
+          if (!packageNames.contains(selectedPackageName)) {
+            throw new IllegalArgumentException("Knowledge module " + sourceFile + " does not contain package '" + selectedPackageName + "'.");
+          }
+        }
+      }
+      for (Map.Entry<File, Set<String>> target : packageNamesByTargetFile.entrySet()) {
+        List<SectionCopy> sectionCopies = new ArrayList<SectionCopy>();
+        for (DroolsKnowledgeModuleSection section : sourceModule.getSections()) {
+          if (target.getValue().contains(section.packageName)) {
+            sectionCopies.add(new SectionCopy(sourceModule, section));
+          }
+        }
+        writeModule(target.getKey(), sourceModule.getHeader(), sectionCopies);
+      }
+    }
+    finally {
+      sourceModule.close();
+    }
+  }
+
+  /**
+   * Header and section index are checked while the module is opened, then the knowledge base snapshot, if any, and the
+   * package sections are read in module order.
+   */
+  public void verify(File moduleFile) throws IOException {
+    final IndexedModuleFile module = IndexedModuleFile.open(moduleFile, "r", null);
+    try {
+      if (module.getHeader().fileFormatVersion < KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS) {
+        throw new InvalidFileFormatVersionException("Knowledge module " + moduleFile + " uses file format " + module.getHeader().fileFormatVersion
+                                                    + ", which has no checksums.");
+      }
+      verifyKnowledgeBaseSection(module);
+      for (DroolsKnowledgeModuleSection section : module.getSections()) {
+        ensureSectionWithinSectionData(module, section);
+        final long frameChecksum = readFrameChecksum(module, section);
+        final long dataChecksum = ModuleChecksums.checksum(module.getChannel(), section.offset, section.length);
+        if (frameChecksum != section.checksum || dataChecksum != section.checksum) {
+          throw new ChecksumMismatchException("Checksum mismatch in section of package '" + section.packageName + "' of knowledge module " + moduleFile
+                                              + ": index records " + Long.toHexString(section.checksum) + ", frame records " + Long.toHexString(frameChecksum)
+                                              + ", data has " + Long.toHexString(dataChecksum) + ".");
+        }
+      }
+    }
+    finally {
+      module.close();
+    }
+  }
+
+  private void verifyKnowledgeBaseSection(IndexedModuleFile module) throws IOException {
+    final DroolsKnowledgeModuleSection section = module.readKnowledgeBaseSection();
+    if (section == null) {
+      return;
+    }
+    final long dataChecksum = ModuleChecksums.checksum(module.getChannel(), section.offset, section.length);
+    if (dataChecksum != section.checksum) {
+      throw new ChecksumMismatchException("Checksum mismatch in knowledge base snapshot of knowledge module " + module.getModuleFile()
+                                          + ": frame records " + Long.toHexString(section.checksum) + ", data has " + Long.toHexString(dataChecksum) + ".");
+    }
+  }
+
+  /**
+   * The checksum is the last field of the frame, immediately preceding the section data.
+   */
+  private long readFrameChecksum(IndexedModuleFile module, DroolsKnowledgeModuleSection section) throws IOException {
+    final ByteBuffer frameChecksum = ByteBuffer.allocate(Integer.SIZE / 8);
+    final long position = section.offset - frameChecksum.capacity();
+    if (position < 0) {
+      throw new IllegalFileFormatException("Section of package '" + section.packageName + "' lies outside the section data of knowledge module "
+                                           + module.getModuleFile() + ".");
+    }
+    while (frameChecksum.hasRemaining()) {
+      if (module.getChannel().read(frameChecksum, position + frameChecksum.position()) < 0) {
+        throw new IllegalFileFormatException("Unexpected end of knowledge module " + module.getModuleFile() + " in frame of package '" + section.packageName + "'.");
+      }
+    }
+    return frameChecksum.getInt(0) & 0xFFFFFFFFL;
+  }
+
+  private IndexedModuleFile openSourceModule(File sourceFile) throws IOException {
+    final IndexedModuleFile sourceModule = IndexedModuleFile.open(sourceFile, "r", null);
+    if (sourceModule.getHeader().moduleKind == KnowledgeModule.MODULE_KIND_DELTA) {
+      sourceModule.close();
+      throw new InvalidFileHeaderException("Knowledge module " + sourceFile + " is a delta module. Apply it to its base module first.");
+    }
+    return sourceModule;
+  }
+
+  private void ensureCompatibleModules(IndexedModuleFile firstModule, IndexedModuleFile otherModule) {
+    final DroolsKnowledgeModuleHeader firstHeader = firstModule.getHeader();
+    final DroolsKnowledgeModuleHeader otherHeader = otherModule.getHeader();
+    if (!firstHeader.droolsRuntimeVersion.equals(otherHeader.droolsRuntimeVersion)) {
+      throw new IllegalArgumentException("Cannot merge knowledge modules written by different Drools runtime versions: "
+                                         + firstModule.getModuleFile() + " uses " + firstHeader.droolsRuntimeVersion + ", "
+                                         + otherModule.getModuleFile() + " uses " + otherHeader.droolsRuntimeVersion + ".");
+    }
+    if (firstHeader.compressionCodecId != otherHeader.compressionCodecId) {
+      throw new IllegalArgumentException("Cannot merge knowledge modules using different compression codecs: "
+                                         + firstModule.getModuleFile() + " uses codec " + firstHeader.compressionCodecId + ", "
+                                         + otherModule.getModuleFile() + " uses codec " + otherHeader.compressionCodecId + ".");
+    }
+    if (firstHeader.packageSerializerId != otherHeader.packageSerializerId) {
+      throw new IllegalArgumentException("Cannot merge knowledge modules using different package serializers: "
+                                         + firstModule.getModuleFile() + " uses serializer " + firstHeader.packageSerializerId + ", "
+                                         + otherModule.getModuleFile() + " uses serializer " + otherHeader.packageSerializerId + ".");
+    }
+  }
+
+  private void writeModule(File targetFile, DroolsKnowledgeModuleHeader sourceHeader, List<SectionCopy> sectionCopies) throws IOException {
+    final long startNanos = System.nanoTime();
+    final FileOutputStream fileOutputStream = new FileOutputStream(targetFile);
+    try {
+      final FileChannel targetChannel = fileOutputStream.getChannel();
+      // flushed before each transfer, so that the channel position always matches the bytes written
+      final DataOutputStream dataOutput = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+      KnowledgeModuleWriterImpl.writeHeader(dataOutput, sourceHeader.droolsRuntimeVersion, sourceHeader.compressionCodecId, KnowledgeModule.MODULE_KIND_FULL, null,
+                                            sourceHeader.packageSerializerId, KnowledgeModule.SNAPSHOT_NONE);
+
+      List<DroolsKnowledgeModuleSection> targetSections = new ArrayList<DroolsKnowledgeModuleSection>(sectionCopies.size());
+      for (SectionCopy sectionCopy : sectionCopies) {
+        final DroolsKnowledgeModuleSection sourceSection = sectionCopy.section;
+        final long sectionStartNanos = System.nanoTime();
+        final long checksum = sourceChecksum(sectionCopy.sourceModule, sourceSection);
+        KnowledgeModuleWriterImpl.writeSectionFrame(dataOutput, sourceSection.packageName, sourceSection.length, checksum);
+        dataOutput.flush();
+
+        DroolsKnowledgeModuleSection targetSection = new DroolsKnowledgeModuleSection();
+        targetSection.packageName = sourceSection.packageName;
+        targetSection.offset = targetChannel.position();
+        targetSection.length = sourceSection.length;
+        targetSection.ruleCount = sourceSection.ruleCount;
+        targetSection.typeDeclarationCount = sourceSection.typeDeclarationCount;
+        targetSection.checksum = checksum;
+        targetSection.rules = sourceSection.rules;
+        transferSection(sectionCopy.sourceModule, sourceSection, targetChannel);
+        targetSections.add(targetSection);
+        listeners.phaseCompleted(KnowledgeIoPhase.WRITE_SECTION, sourceSection.packageName, sectionStartNanos, System.nanoTime(),
+                                 sourceSection.length, KnowledgeIoEvent.UNKNOWN, 1);
+      }
+
+      dataOutput.writeByte(KnowledgeModule.SECTION_END);
+      dataOutput.flush();
+      final long indexOffset = targetChannel.position();
+      SectionIndex.write(dataOutput, targetSections);
+      dataOutput.writeLong(indexOffset);
+      dataOutput.flush();
+      listeners.phaseCompleted(KnowledgeIoPhase.WRITE_MODULE, null, startNanos, System.nanoTime(),
+                               targetChannel.position(), KnowledgeIoEvent.UNKNOWN, targetSections.size());
+    }
+    finally {
+      fileOutputStream.close();
+    }
+  }
+
+  /**
+   * Sections of modules written before file format 7 have no recorded checksum, so theirs is computed from the source.
+   */
+  private long sourceChecksum(IndexedModuleFile sourceModule, DroolsKnowledgeModuleSection section) throws IOException {
+    if (section.checksum != ModuleChecksums.NONE) {
+      return section.checksum;
+    }
+    ensureSectionWithinSectionData(sourceModule, section);
+    return ModuleChecksums.checksum(sourceModule.getChannel(), section.offset, section.length);
+  }
+
+  private void ensureSectionWithinSectionData(IndexedModuleFile module, DroolsKnowledgeModuleSection section) {
+    if (section.offset < 0 || section.length < 0 || section.offset + section.length >= module.getIndexOffset()) {
+      throw new IllegalFileFormatException("Section of package '" + section.packageName + "' lies outside the section data of knowledge module "
+                                           + module.getModuleFile() + ".");
+    }
+  }
+
+  private void transferSection(IndexedModuleFile sourceModule, DroolsKnowledgeModuleSection section, FileChannel targetChannel) throws IOException {
+    ensureSectionWithinSectionData(sourceModule, section);
+    final FileChannel sourceChannel = sourceModule.getChannel();
+    long transferred = 0;
+    while (transferred < section.length) {
+      // may transfer less than requested, e.g. when limited by the operating system
+      final long count = sourceChannel.transferTo(section.offset + transferred, section.length - transferred, targetChannel);
+      if (count == 0) {
+        // nothing is left at the position, e.g. because the file was truncated after its index was read
+        throw new EOFException("Unexpected end of knowledge module " + sourceModule.getModuleFile() + " in section of package '" + section.packageName + "'.");
+      }
+      transferred += count;
+    }
+  }
+
+  private static class SectionCopy {
+
+    private final IndexedModuleFile sourceModule;
+    private final DroolsKnowledgeModuleSection section;
+
+    private SectionCopy(IndexedModuleFile sourceModule, DroolsKnowledgeModuleSection section) {
+      this.sourceModule = sourceModule;
+      this.section = section;
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleSubscriber;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleWatcher;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the watched files for changes of their modification time and length. Java 5 offers no file change
+ * notifications, and polling keeps working on network file systems, where notifications are often unavailable.
+ */
+public class KnowledgeModuleWatcherImpl implements KnowledgeModuleWatcher {
+
+  private final KnowledgeIoFactory knowledgeIoFactory;
+  private final ClassLoader classLoader;
+  private final long pollIntervalMillis;
+  private final List<KnowledgeModuleSubscriber> subscribers = new CopyOnWriteArrayList<KnowledgeModuleSubscriber>();
+
+  /**
+   * Watched modules in the order they were watched, guarded by <code>this</code>.
+   */
+  private final Map<File, WatchedModule> watchedModules = new LinkedHashMap<File, WatchedModule>();
+
+  private volatile Map<File, Collection<KnowledgePackage>> snapshot = Collections.emptyMap();
+  private ScheduledExecutorService scheduler;
+
+  public KnowledgeModuleWatcherImpl(KnowledgeIoFactory knowledgeIoFactory, ClassLoader classLoader, long pollIntervalMillis) {
+    if (pollIntervalMillis < 1) {
+      throw new IllegalArgumentException("Poll interval must be at least one millisecond, but was " + pollIntervalMillis + ".");
+    }
+    this.knowledgeIoFactory = knowledgeIoFactory;
+    this.classLoader = classLoader;
+    this.pollIntervalMillis = pollIntervalMillis;
+  }
+
+  public synchronized void watch(File moduleFile) throws IOException, ClassNotFoundException {
+    if (watchedModules.containsKey(moduleFile)) {
+      return;
+    }
+    final WatchedModule watchedModule = new WatchedModule(moduleFile);
+    watchedModule.load(knowledgeIoFactory, classLoader);
+    watchedModules.put(moduleFile, watchedModule);
+    publishSnapshot();
+  }
+
+  public synchronized void unwatch(File moduleFile) {
+    if (watchedModules.remove(moduleFile) != null) {
+      publishSnapshot();
+    }
+  }
+
+  public Map<File, Collection<KnowledgePackage>> getKnowledgePackages() {
+    return snapshot;
+  }
+
+  public void addSubscriber(KnowledgeModuleSubscriber subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  public void removeSubscriber(KnowledgeModuleSubscriber subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  public synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(new WatcherThreadFactory());
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        poll();
+      }
+    }, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Checks all watched files once, reloading those which changed before the previous check and stayed unchanged since.
+   * Subscribers are notified after the watcher lock is released, so they may watch or unwatch modules.
+   */
+  void poll() {
+    // reloaded modules in watch order, mapped to the failure of their reload or null
+    Map<File, Exception> reloadResults = new LinkedHashMap<File, Exception>();
+    final Map<File, Collection<KnowledgePackage>> knowledgePackages;
+    synchronized (this) {
+      boolean changed = false;
+      for (WatchedModule watchedModule : watchedModules.values()) {
+        if (!watchedModule.isDueForReload()) {
+          continue;
+        }
+        try {
+          if (watchedModule.load(knowledgeIoFactory, classLoader)) {
+            reloadResults.put(watchedModule.moduleFile, null);
+            changed = true;
+          }
+        }
+        catch (Exception e) {
+          reloadResults.put(watchedModule.moduleFile, e);
+        }
+      }
+      if (changed) {
+        publishSnapshot();
+      }
+      knowledgePackages = snapshot;
+    }
+    for (Map.Entry<File, Exception> reloadResult : reloadResults.entrySet()) {
+      for (KnowledgeModuleSubscriber subscriber : subscribers) {
+        notifySubscriber(subscriber, reloadResult.getKey(), reloadResult.getValue(), knowledgePackages);
+      }
+    }
+  }
+
+  private void publishSnapshot() {
+    Map<File, Collection<KnowledgePackage>> knowledgePackages = new LinkedHashMap<File, Collection<KnowledgePackage>>();
+    for (WatchedModule watchedModule : watchedModules.values()) {
+      knowledgePackages.put(watchedModule.moduleFile, watchedModule.knowledgePackages);
+    }
+    snapshot = Collections.unmodifiableMap(knowledgePackages);
+  }
+
+  /**
+   * Hands runtime exceptions of the subscriber to the uncaught exception handler of the current thread, so that neither
+   * other subscribers nor later checks are affected: an exception escaping the polling task would cancel it.
+   */
+  private void notifySubscriber(KnowledgeModuleSubscriber subscriber, File moduleFile, Exception reloadFailure,
+                                Map<File, Collection<KnowledgePackage>> knowledgePackages) {
+    try {
+      if (reloadFailure == null) {
+        subscriber.knowledgePackagesChanged(moduleFile, knowledgePackages);
+      }
+      else {
+        subscriber.reloadFailed(moduleFile, reloadFailure);
+      }
+    }
+    catch (RuntimeException e) {
+      final Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  }
+
+  private static class WatchedModule {
+
+    private final File moduleFile;
+    private long lastModified;
+    private long length;
+    private boolean changed = false;
+    private byte[] digest;
+    private Collection<KnowledgePackage> knowledgePackages;
+
+    private WatchedModule(File moduleFile) {
+      this.moduleFile = moduleFile;
+      this.lastModified = moduleFile.lastModified();
+      this.length = moduleFile.length();
+    }
+
+    /**
+     * Debounces changes: a file is due once it changed, but only after it stayed unchanged for one check, so that
+     * a file still being written is not loaded.
+     */
+    private boolean isDueForReload() {
+      final long currentLastModified = moduleFile.lastModified();
+      final long currentLength = moduleFile.length();
+      if (currentLastModified != lastModified || currentLength != length) {
+        lastModified = currentLastModified;
+        length = currentLength;
+        changed = true;
+        return false;
+      }
+      if (changed) {
+        changed = false;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return whether the packages were replaced, i.e. the module content differs from the one loaded before.
+     */
+    private boolean load(KnowledgeIoFactory knowledgeIoFactory, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+      final ByteBuffer moduleBytes = MappedFiles.readFully(moduleFile);
+      final byte[] currentDigest = ModuleDigests.digest(moduleBytes.duplicate());
+      if (Arrays.equals(currentDigest, digest)) {
+        return false;
+      }
+      final Collection<KnowledgePackage> loadedPackages = knowledgeIoFactory.createKnowledgeModuleReader(new ByteBufferInputStream(moduleBytes), classLoader).readKnowledgePackages();
+      knowledgePackages = Collections.unmodifiableCollection(loadedPackages);
+      digest = currentDigest;
+      return true;
+    }
+  }
+
+  private static class WatcherThreadFactory implements ThreadFactory {
+
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "knowledge-module-watcher");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
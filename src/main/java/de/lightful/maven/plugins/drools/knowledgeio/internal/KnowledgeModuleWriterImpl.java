@@ -18,49 +18,441 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio.internal;
 
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.IncrementalKnowledgeModuleWriter;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
 import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleWriter;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+import org.drools.KnowledgeBase;
 import org.drools.core.util.DroolsStreamUtils;
 import org.drools.definition.KnowledgePackage;
+import org.drools.definitions.impl.KnowledgePackageImp;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import static org.fest.assertions.Assertions.assertThat;
 
-public class KnowledgeModuleWriterImpl implements KnowledgeModuleWriter {
+public class KnowledgeModuleWriterImpl implements KnowledgeModuleWriter, IncrementalKnowledgeModuleWriter {
 
-  private OutputStream outputStream;
+  private CountingOutputStream outputStream;
+  private DataOutputStream dataOutput;
+  private CompressionCodec compressionCodec;
+  private PackageSerializer packageSerializer;
+  private Executor executor;
+  private KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+  private PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+  private long uncompressedBytes;
+
+  /** Sections of the module being written, <code>null</code> unless a module has been begun but not finished. */
+  private List<DroolsKnowledgeModuleSection> sections;
+  private long moduleStartNanos;
+  private long moduleStartCount;
 
   public KnowledgeModuleWriterImpl(OutputStream outputStream) {
-    this.outputStream = outputStream;
+    this(outputStream, CompressionCodecs.DEFLATE);
+  }
+
+  public KnowledgeModuleWriterImpl(OutputStream outputStream, CompressionCodec compressionCodec) {
+    this(outputStream, compressionCodec, PackageSerializers.JAVA);
+  }
+
+  public KnowledgeModuleWriterImpl(OutputStream outputStream, CompressionCodec compressionCodec, PackageSerializer packageSerializer) {
+    this(outputStream, compressionCodec, packageSerializer, null, 0);
+  }
+
+  /**
+   * @param executor serializes and compresses the packages passed to one call concurrently, while their sections are
+   * written to <code>outputStream</code> in package order; <code>null</code> to serialize on the calling thread.
+   */
+  public KnowledgeModuleWriterImpl(OutputStream outputStream, CompressionCodec compressionCodec, PackageSerializer packageSerializer, Executor executor) {
+    this(outputStream, compressionCodec, packageSerializer, executor, 0);
+  }
+
+  /**
+   * Writes to <code>channel</code> through a reusable direct buffer, passing each package section to the channel
+   * together with the buffered header or frame bytes preceding it. The channel is left open.
+   */
+  public KnowledgeModuleWriterImpl(WritableByteChannel channel, CompressionCodec compressionCodec, PackageSerializer packageSerializer) {
+    this(new ChannelOutputStream(channel), compressionCodec, packageSerializer);
+  }
+
+  /**
+   * @param offset position in the module at which <code>outputStream</code> starts writing.
+   */
+  KnowledgeModuleWriterImpl(OutputStream outputStream, CompressionCodec compressionCodec, PackageSerializer packageSerializer, Executor executor, long offset) {
+    this.outputStream = new CountingOutputStream(outputStream, offset);
+    this.dataOutput = new DataOutputStream(this.outputStream);
+    this.compressionCodec = compressionCodec;
+    this.packageSerializer = packageSerializer;
+    this.executor = executor;
+  }
+
+  /**
+   * @param listeners receive the timings of all following writes.
+   */
+  public void setKnowledgeIoListeners(KnowledgeIoListeners listeners) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * @param packageSerializers resolve the package serializer recorded in base modules passed to {@link #writeDelta(File, Iterable)}.
+   */
+  public void setPackageSerializers(PackageSerializerRegistry packageSerializers) {
+    this.packageSerializers = packageSerializers;
+  }
+
+  public void begin() throws IOException {
+    beginModule(KnowledgeModule.MODULE_KIND_FULL, null, KnowledgeModule.SNAPSHOT_NONE);
+  }
+
+  public void writePackage(KnowledgePackage knowledgePackage) throws IOException {
+    ensureModuleBegun();
+    sections.add(writeKnowledgePackageSection(knowledgePackage));
+    outputStream.flush();
+  }
+
+  public void finish() throws IOException {
+    ensureModuleBegun();
+    finishModule(Collections.<String>emptySet());
   }
 
   public void writeKnowledgePackages(Iterable<KnowledgePackage> knowledgePackages) throws IOException {
-    writeFileMagic();
-    writeFileFormat();
-    writeDroolsRuntimeVersion();
-    writeKnowledgeData(knowledgePackages);
+    writeModule(KnowledgeModule.MODULE_KIND_FULL, null, knowledgePackages, Collections.<String>emptySet());
+  }
+
+  public void writeKnowledgeBase(KnowledgeBase knowledgeBase) throws IOException {
+    beginModule(KnowledgeModule.MODULE_KIND_FULL, null, KnowledgeModule.SNAPSHOT_KNOWLEDGE_BASE);
+    writeKnowledgeBaseSection(knowledgeBase);
+    writeKnowledgePackageSections(knowledgeBase.getKnowledgePackages(), sections);
+    finishModule(Collections.<String>emptySet());
+  }
+
+  public void writeDelta(byte[] baseModuleDigest, Iterable<KnowledgePackage> changedPackages, Set<String> removedPackageNames) throws IOException {
+    if (baseModuleDigest == null || baseModuleDigest.length == 0 || baseModuleDigest.length > 0xFFFF) {
+      throw new IllegalArgumentException("Delta module requires the digest of its base module.");
+    }
+    writeModule(KnowledgeModule.MODULE_KIND_DELTA, baseModuleDigest, changedPackages, removedPackageNames);
   }
 
-  private void writeFileMagic() throws IOException {
-    outputStream.write(KnowledgeModule.FILE_MAGIC, 0, KnowledgeModule.FILE_MAGIC.length);
+  public void writeDelta(File baseModule, Iterable<KnowledgePackage> knowledgePackages) throws IOException {
+    final ByteBuffer mappedBaseModule = MappedFiles.mapReadOnly(baseModule);
+    final byte[] baseModuleDigest = ModuleDigests.digest(mappedBaseModule.duplicate());
+    final KnowledgeModuleReaderImpl baseModuleReader = new KnowledgeModuleReaderImpl(new ByteBufferInputStream(mappedBaseModule.duplicate()), null, null);
+    baseModuleReader.setPackageSerializers(packageSerializers);
+    final Map<String, byte[]> basePackageDigests = baseModuleReader.readSerializedPackageDigests();
+    // packages are compared in the encoding of the base module, whatever serializer writes the delta
+    final PackageSerializer basePackageSerializer = baseModuleReader.resolvePackageSerializer();
+
+    List<KnowledgePackage> changedPackages = new ArrayList<KnowledgePackage>();
+    Set<String> removedPackageNames = new LinkedHashSet<String>(basePackageDigests.keySet());
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      removedPackageNames.remove(knowledgePackage.getName());
+      final byte[] basePackageDigest = basePackageDigests.get(knowledgePackage.getName());
+      if (basePackageDigest == null || !Arrays.equals(basePackageDigest, ModuleDigests.digestSerializedForm(knowledgePackage, basePackageSerializer))) {
+        changedPackages.add(knowledgePackage);
+      }
+    }
+    writeDelta(baseModuleDigest, changedPackages, removedPackageNames);
+  }
+
+  /**
+   * Writes the knowledge base as serialized by Drools, independent of the package serializer of this writer.
+   */
+  private void writeKnowledgeBaseSection(KnowledgeBase knowledgeBase) throws IOException {
+    final long startNanos = System.nanoTime();
+    final ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream();
+    final OutputStream compressedData = compressionCodec.compress(sectionBuffer);
+    try {
+      DroolsStreamUtils.streamOut(compressedData, knowledgeBase, false);
+    }
+    finally {
+      compressedData.close();
+    }
+    final byte[] sectionData = sectionBuffer.toByteArray();
+    dataOutput.writeByte(KnowledgeModule.SECTION_KNOWLEDGE_BASE);
+    dataOutput.writeLong(sectionData.length);
+    ModuleChecksums.write(dataOutput, ModuleChecksums.checksum(sectionData));
+    outputStream.write(sectionData);
+    listeners.phaseCompleted(KnowledgeIoPhase.WRITE_SECTION, null, startNanos, System.nanoTime(), sectionData.length, KnowledgeIoEvent.UNKNOWN, 0);
+  }
+
+  /**
+   * Writes sections for <code>knowledgePackages</code>, followed by the end-of-sections marker, a section index covering
+   * <code>existingSections</code> and the new sections, and the trailer. The output stream must be positioned at
+   * the end-of-sections marker of an existing module, with the writer's offset set accordingly.
+   */
+  void appendKnowledgePackages(List<DroolsKnowledgeModuleSection> existingSections, Iterable<KnowledgePackage> knowledgePackages) throws IOException {
+    final long startNanos = System.nanoTime();
+    final long startCount = outputStream.getCount();
+    uncompressedBytes = 0;
+    List<DroolsKnowledgeModuleSection> appendedSections = new ArrayList<DroolsKnowledgeModuleSection>();
+    writeKnowledgePackageSections(knowledgePackages, appendedSections);
+    writeEndOfSections(Collections.<String>emptySet());
+    List<DroolsKnowledgeModuleSection> allSections = new ArrayList<DroolsKnowledgeModuleSection>(existingSections);
+    allSections.addAll(appendedSections);
+    writeSectionIndex(allSections);
+    outputStream.flush();
+    listeners.phaseCompleted(KnowledgeIoPhase.WRITE_MODULE, null, startNanos, System.nanoTime(),
+                             outputStream.getCount() - startCount, listeners.isEmpty() ? KnowledgeIoEvent.UNKNOWN : uncompressedBytes, appendedSections.size());
+  }
+
+  private void writeModule(byte moduleKind, byte[] baseModuleDigest, Iterable<KnowledgePackage> knowledgePackages, Set<String> removedPackageNames) throws IOException {
+    beginModule(moduleKind, baseModuleDigest, KnowledgeModule.SNAPSHOT_NONE);
+    writeKnowledgePackageSections(knowledgePackages, sections);
+    finishModule(removedPackageNames);
   }
 
-  private void writeFileFormat() throws IOException {
-    outputStream.write(KnowledgeModule.CURRENT_FILE_FORMAT, 0, KnowledgeModule.CURRENT_FILE_FORMAT.length);
+  private void beginModule(byte moduleKind, byte[] baseModuleDigest, byte snapshotKind) throws IOException {
+    if (sections != null) {
+      throw new IllegalStateException("Cannot begin a knowledge module before the one begun before is finished.");
+    }
+    moduleStartNanos = System.nanoTime();
+    moduleStartCount = outputStream.getCount();
+    uncompressedBytes = 0;
+    writeHeader(dataOutput, KnowledgePackage.class.getPackage().getImplementationVersion(), compressionCodec.getId(), moduleKind, baseModuleDigest,
+                packageSerializer.getId(), snapshotKind);
+    final long headerLength = outputStream.getCount() - moduleStartCount;
+    listeners.phaseCompleted(KnowledgeIoPhase.WRITE_HEADER, null, moduleStartNanos, System.nanoTime(), headerLength, headerLength, 0);
+    sections = new ArrayList<DroolsKnowledgeModuleSection>();
   }
 
-  private void writeDroolsRuntimeVersion() throws IOException {
-    final String implementationVersion = KnowledgePackage.class.getPackage().getImplementationVersion();
+  private void finishModule(Set<String> removedPackageNames) throws IOException {
+    writeEndOfSections(removedPackageNames);
+    writeSectionIndex(sections);
+    outputStream.flush();
+    listeners.phaseCompleted(KnowledgeIoPhase.WRITE_MODULE, null, moduleStartNanos, System.nanoTime(),
+                             outputStream.getCount() - moduleStartCount, listeners.isEmpty() ? KnowledgeIoEvent.UNKNOWN : uncompressedBytes, sections.size());
+    sections = null;
+  }
+
+  private void ensureModuleBegun() {
+    if (sections == null) {
+      throw new IllegalStateException("No knowledge module begun: call begin() first.");
+    }
+  }
+
+  /**
+   * Writes a header in the current file format, followed by its checksum.
+   */
+  static void writeHeader(DataOutputStream dataOutput, String droolsRuntimeVersion, byte compressionCodecId, byte moduleKind, byte[] baseModuleDigest,
+                          byte packageSerializerId, byte snapshotKind) throws IOException {
+    final CRC32 checksum = new CRC32();
+    final DataOutputStream headerOutput = new DataOutputStream(new CheckedOutputStream(dataOutput, checksum));
+    writeFileMagic(headerOutput);
+    writeFileFormat(headerOutput);
+    writeDroolsRuntimeVersion(headerOutput, droolsRuntimeVersion);
+    headerOutput.writeByte(compressionCodecId);
+    writeModuleKind(headerOutput, moduleKind, baseModuleDigest);
+    headerOutput.writeByte(packageSerializerId);
+    headerOutput.writeByte(snapshotKind);
+    ModuleChecksums.write(dataOutput, checksum.getValue());
+  }
+
+  private static void writeFileMagic(DataOutputStream dataOutput) throws IOException {
+    dataOutput.write(KnowledgeModule.FILE_MAGIC, 0, KnowledgeModule.FILE_MAGIC.length);
+  }
+
+  private static void writeFileFormat(DataOutputStream dataOutput) throws IOException {
+    dataOutput.write(KnowledgeModule.CURRENT_FILE_FORMAT, 0, KnowledgeModule.CURRENT_FILE_FORMAT.length);
+  }
+
+  private static void writeDroolsRuntimeVersion(DataOutputStream dataOutput, String implementationVersion) throws IOException {
     assertThat(implementationVersion.length()).as("Length of implementation version").isLessThan(Short.MAX_VALUE);
-    final ByteBuffer buffer = ByteBuffer.allocate(Short.SIZE / 8);
-    buffer.putShort((short) implementationVersion.length());
-    outputStream.write(buffer.array());
-    outputStream.write(implementationVersion.getBytes("UTF-8"));
+    dataOutput.writeShort(implementationVersion.length());
+    dataOutput.write(implementationVersion.getBytes("UTF-8"));
+  }
+
+  private static void writeModuleKind(DataOutputStream dataOutput, byte moduleKind, byte[] baseModuleDigest) throws IOException {
+    dataOutput.writeByte(moduleKind);
+    if (moduleKind == KnowledgeModule.MODULE_KIND_DELTA) {
+      dataOutput.writeShort(baseModuleDigest.length);
+      dataOutput.write(baseModuleDigest);
+    }
+  }
+
+  private void writeEndOfSections(Set<String> removedPackageNames) throws IOException {
+    for (String removedPackageName : removedPackageNames) {
+      dataOutput.writeByte(KnowledgeModule.SECTION_REMOVED_PACKAGE);
+      dataOutput.writeUTF(removedPackageName);
+    }
+    dataOutput.writeByte(KnowledgeModule.SECTION_END);
+  }
+
+  /**
+   * Writes one section per package, adding their index entries to <code>writtenSections</code>.
+   */
+  private void writeKnowledgePackageSections(Iterable<KnowledgePackage> knowledgePackages, List<DroolsKnowledgeModuleSection> writtenSections) throws IOException {
+    if (executor == null) {
+      for (KnowledgePackage knowledgePackage : knowledgePackages) {
+        writtenSections.add(writeKnowledgePackageSection(knowledgePackage));
+      }
+      return;
+    }
+    List<Future<CompressedSection>> compressions = new ArrayList<Future<CompressedSection>>();
+    try {
+      for (final KnowledgePackage knowledgePackage : knowledgePackages) {
+        FutureTask<CompressedSection> compression = new FutureTask<CompressedSection>(new Callable<CompressedSection>() {
+          public CompressedSection call() throws IOException {
+            return compressSection(knowledgePackage);
+          }
+        });
+        compressions.add(compression);
+        executor.execute(compression);
+      }
+      for (Future<CompressedSection> compression : compressions) {
+        writtenSections.add(writeSection(awaitCompression(compression)));
+      }
+    }
+    finally {
+      for (Future<CompressedSection> compression : compressions) {
+        compression.cancel(false);
+      }
+    }
+  }
+
+  private CompressedSection awaitCompression(Future<CompressedSection> compression) throws IOException {
+    try {
+      return compression.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for knowledge packages to be serialized.");
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      final IOException ioe = new IOException("Cannot serialize knowledge package.");
+      ioe.initCause(cause);
+      throw ioe;
+    }
+  }
+
+  private DroolsKnowledgeModuleSection writeKnowledgePackageSection(KnowledgePackage knowledgePackage) throws IOException {
+    return writeSection(compressSection(knowledgePackage));
+  }
+
+  /**
+   * Serializes and compresses a package without touching the output stream, so it may run on any thread.
+   */
+  private CompressedSection compressSection(KnowledgePackage knowledgePackage) throws IOException {
+    final long startNanos = System.nanoTime();
+    final ByteArrayOutputStream sectionBuffer = new ByteArrayOutputStream();
+    OutputStream compressedData = compressionCodec.compress(sectionBuffer);
+    MeasuringOutputStream measuredData = null;
+    if (!listeners.isEmpty()) {
+      measuredData = new MeasuringOutputStream(compressedData);
+      compressedData = measuredData;
+    }
+    try {
+      packageSerializer.serialize(knowledgePackage, compressedData);
+    }
+    finally {
+      compressedData.close();
+    }
+    final byte[] sectionData = sectionBuffer.toByteArray();
+    final long serializedNanos = System.nanoTime();
+
+    final CompressedSection compressedSection = new CompressedSection();
+    compressedSection.section.packageName = knowledgePackage.getName();
+    compressedSection.section.length = sectionData.length;
+    compressedSection.section.ruleCount = knowledgePackage.getRules().size();
+    compressedSection.section.typeDeclarationCount = countTypeDeclarations(knowledgePackage);
+    compressedSection.section.rules = RuleManifests.describe(knowledgePackage);
+    compressedSection.section.checksum = ModuleChecksums.checksum(sectionData);
+    compressedSection.data = sectionData;
+    if (measuredData != null) {
+      final String packageName = knowledgePackage.getName();
+      final long deflateNanos = measuredData.getNanos();
+      compressedSection.serializedLength = measuredData.getCount();
+      listeners.phaseCompleted(KnowledgeIoPhase.SERIALIZE, packageName, startNanos, serializedNanos - deflateNanos, sectionData.length, compressedSection.serializedLength, 1);
+      listeners.phaseCompleted(KnowledgeIoPhase.DEFLATE, packageName, startNanos, startNanos + deflateNanos, sectionData.length, compressedSection.serializedLength, 1);
+    }
+    return compressedSection;
+  }
+
+  private DroolsKnowledgeModuleSection writeSection(CompressedSection compressedSection) throws IOException {
+    final long startNanos = System.nanoTime();
+    final DroolsKnowledgeModuleSection section = compressedSection.section;
+    writeSectionFrame(dataOutput, section.packageName, section.length, section.checksum);
+    section.offset = outputStream.getCount();
+    outputStream.write(compressedSection.data);
+    // concurrently written sections are kept by their futures until all sections are written
+    compressedSection.data = null;
+    if (compressedSection.serializedLength != KnowledgeIoEvent.UNKNOWN) {
+      uncompressedBytes += compressedSection.serializedLength;
+      listeners.phaseCompleted(KnowledgeIoPhase.WRITE_SECTION, section.packageName, startNanos, System.nanoTime(), section.length,
+                               compressedSection.serializedLength, 1);
+    }
+    return section;
+  }
+
+  /**
+   * Writes the frame preceding the data of a knowledge package section.
+   */
+  static void writeSectionFrame(DataOutputStream dataOutput, String packageName, long sectionLength, long checksum) throws IOException {
+    dataOutput.writeByte(KnowledgeModule.SECTION_KNOWLEDGE_PACKAGE);
+    dataOutput.writeUTF(packageName);
+    dataOutput.writeLong(sectionLength);
+    ModuleChecksums.write(dataOutput, checksum);
+  }
+
+  /**
+   * A package section ready to be written; the offset of its index entry is only known once it is written.
+   */
+  private static class CompressedSection {
+
+    private final DroolsKnowledgeModuleSection section = new DroolsKnowledgeModuleSection();
+    private byte[] data;
+
+    /** Length of the serialized package before compression; only measured while listeners are registered. */
+    private long serializedLength = KnowledgeIoEvent.UNKNOWN;
+  }
+
+  private int countTypeDeclarations(KnowledgePackage knowledgePackage) {
+    if (!(knowledgePackage instanceof KnowledgePackageImp)) {
+      return DroolsKnowledgeModuleSection.UNKNOWN;
+    }
+    return ((KnowledgePackageImp) knowledgePackage).pkg.getTypeDeclarations().size();
   }
 
-  private void writeKnowledgeData(Iterable<KnowledgePackage> knowledgePackages) throws IOException {
-    DroolsStreamUtils.streamOut(outputStream, knowledgePackages, true);
+  private void writeSectionIndex(List<DroolsKnowledgeModuleSection> indexedSections) throws IOException {
+    final long startNanos = System.nanoTime();
+    final long indexOffset = outputStream.getCount();
+    SectionIndex.write(dataOutput, indexedSections);
+    dataOutput.writeLong(indexOffset);
+    final long indexLength = outputStream.getCount() - indexOffset;
+    listeners.phaseCompleted(KnowledgeIoPhase.WRITE_INDEX, null, startNanos, System.nanoTime(), indexLength, indexLength, indexedSections.size());
   }
 }
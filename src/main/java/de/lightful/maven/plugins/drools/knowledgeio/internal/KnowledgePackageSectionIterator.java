@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.IllegalFileFormatException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import de.lightful.maven.plugins.drools.knowledgeio.ValidationLevel;
+import org.drools.KnowledgeBase;
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Walks the sections of an indexed knowledge module, deserializing one knowledge package per call to {@link #next()}.
+ * Only section frames are read ahead; section data of unselected packages is skipped. Section data is checked against
+ * the checksum in its frame while it is decompressed.
+ */
+class KnowledgePackageSectionIterator implements Iterator<KnowledgePackage> {
+
+  private final InputStream inputStream;
+  private final DataInputStream dataInput;
+  private final ClassLoader classLoader;
+  private final CompressionCodec compressionCodec;
+  private final PackageSerializer packageSerializer;
+  private final long fileFormatVersion;
+  private final ValidationLevel validationLevel;
+  private final Set<String> packageNames;
+  private final Set<String> framedPackageNames = new HashSet<String>();
+  private final Set<String> removedPackageNames = new LinkedHashSet<String>();
+  private final KnowledgeIoListeners listeners;
+
+  private long compressedBytes = 0;
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private String pendingPackageName = null;
+  private long pendingSectionLength;
+  private long pendingChecksum;
+  private boolean endOfSections = false;
+
+  /**
+   * @param packageNames names of the packages to read, <code>null</code> to read all packages.
+   */
+  KnowledgePackageSectionIterator(InputStream inputStream, ClassLoader classLoader, CompressionCodec compressionCodec, PackageSerializer packageSerializer,
+                                  long fileFormatVersion, ValidationLevel validationLevel, Set<String> packageNames, KnowledgeIoListeners listeners) {
+    this.inputStream = inputStream;
+    this.dataInput = new DataInputStream(inputStream);
+    this.classLoader = classLoader;
+    this.compressionCodec = compressionCodec;
+    this.packageSerializer = packageSerializer;
+    this.fileFormatVersion = fileFormatVersion;
+    this.validationLevel = validationLevel;
+    this.packageNames = packageNames;
+    this.listeners = listeners;
+  }
+
+  public boolean hasNext() {
+    try {
+      return hasNextSection();
+    }
+    catch (IOException e) {
+      throw new KnowledgeModuleReadException("Cannot read section frame from knowledge module.", e);
+    }
+  }
+
+  public KnowledgePackage next() {
+    try {
+      return nextSection();
+    }
+    catch (IOException e) {
+      throw new KnowledgeModuleReadException("Cannot read knowledge package from knowledge module.", e);
+    }
+    catch (ClassNotFoundException e) {
+      throw new KnowledgeModuleReadException("Cannot read knowledge package from knowledge module.", e);
+    }
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("Cannot remove knowledge packages from knowledge module.");
+  }
+
+  boolean hasNextSection() throws IOException {
+    while (pendingPackageName == null && !endOfSections) {
+      final byte sectionKind = dataInput.readByte();
+      if (sectionKind == KnowledgeModule.SECTION_END) {
+        endOfSections = true;
+      }
+      else if (sectionKind == KnowledgeModule.SECTION_KNOWLEDGE_PACKAGE) {
+        final String packageName = dataInput.readUTF();
+        final long sectionLength = dataInput.readLong();
+        long checksum = ModuleChecksums.NONE;
+        if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS) {
+          checksum = ModuleChecksums.read(dataInput);
+        }
+        if (validationLevel == ValidationLevel.FULL && !framedPackageNames.add(packageName)) {
+          throw new IllegalFileFormatException("Duplicate section for package '" + packageName + "' in knowledge module.");
+        }
+        if (packageNames == null || packageNames.contains(packageName)) {
+          pendingPackageName = packageName;
+          pendingSectionLength = sectionLength;
+          pendingChecksum = checksum;
+        }
+        else {
+          skipSection("package '" + packageName + "'", sectionLength);
+        }
+      }
+      else if (sectionKind == KnowledgeModule.SECTION_REMOVED_PACKAGE) {
+        removedPackageNames.add(dataInput.readUTF());
+      }
+      else if (sectionKind == KnowledgeModule.SECTION_KNOWLEDGE_BASE) {
+        final long sectionLength = dataInput.readLong();
+        ModuleChecksums.read(dataInput);
+        skipSection("knowledge base snapshot", sectionLength);
+      }
+      else {
+        throw new IllegalFileFormatException("Unknown section kind " + sectionKind + " in knowledge module.");
+      }
+    }
+    return pendingPackageName != null;
+  }
+
+  KnowledgePackage nextSection() throws IOException, ClassNotFoundException {
+    return nextSectionDeserializer().call();
+  }
+
+  /**
+   * Reads the data of the next selected section, leaving its deserialization to the returned task.
+   * The task does not touch the underlying input stream and may run on any thread.
+   */
+  SectionDeserializer nextSectionDeserializer() throws IOException {
+    if (!hasNextSection()) {
+      throw new NoSuchElementException("No more knowledge packages in knowledge module.");
+    }
+    final String packageName = pendingPackageName;
+    final long sectionLength = pendingSectionLength;
+    pendingPackageName = null;
+    final long startNanos = System.nanoTime();
+    final InputStream sectionData = readSectionData("package '" + packageName + "'", sectionLength);
+    listeners.phaseCompleted(KnowledgeIoPhase.READ_SECTION, packageName, startNanos, System.nanoTime(), sectionLength, KnowledgeIoEvent.UNKNOWN, 1);
+    compressedBytes += sectionLength;
+    return new SectionDeserializer(packageName, sectionLength, pendingChecksum, sectionData);
+  }
+
+  /**
+   * Reads the knowledge base snapshot, which must be the next section.
+   */
+  KnowledgeBase readKnowledgeBaseSnapshot() throws IOException, ClassNotFoundException {
+    final long startNanos = System.nanoTime();
+    final byte sectionKind = dataInput.readByte();
+    if (sectionKind != KnowledgeModule.SECTION_KNOWLEDGE_BASE) {
+      throw new IllegalFileFormatException("Expected knowledge base snapshot as first section of knowledge module, but got section kind " + sectionKind + ".");
+    }
+    final long sectionLength = dataInput.readLong();
+    final long checksum = ModuleChecksums.read(dataInput);
+    final InputStream sectionData = readSectionData("knowledge base snapshot", sectionLength);
+    compressedBytes += sectionLength;
+    final CheckedInputStream checkedData = new CheckedInputStream(sectionData, new CRC32());
+    final InputStream decompressedData = compressionCodec.decompress(checkedData);
+    Object streamedInObject;
+    try {
+      streamedInObject = DroolsStreamUtils.streamIn(decompressedData, classLoader, false);
+    }
+    finally {
+      try {
+        ModuleChecksums.drain(checkedData);
+        ModuleChecksums.ensureChecksumMatches(checksum, checkedData.getChecksum().getValue(), "knowledge base snapshot");
+      }
+      finally {
+        decompressedData.close();
+      }
+    }
+    if (validationLevel != ValidationLevel.NONE && !(streamedInObject instanceof KnowledgeBase)) {
+      throw new IllegalFileFormatException("Expected a knowledge base in knowledge base snapshot, but got " + KnowledgeModuleReaderImpl.describeType(streamedInObject) + ".");
+    }
+    listeners.phaseCompleted(KnowledgeIoPhase.DESERIALIZE, null, startNanos, System.nanoTime(), sectionLength, KnowledgeIoEvent.UNKNOWN, 1);
+    return (KnowledgeBase) streamedInObject;
+  }
+
+  /**
+   * @return names of packages marked as removed by the sections of a delta module walked so far.
+   */
+  Set<String> getRemovedPackageNames() {
+    return removedPackageNames;
+  }
+
+  /**
+   * @return compressed bytes of all sections read so far, excluding skipped sections.
+   */
+  long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  /**
+   * @return uncompressed bytes of all sections deserialized so far; only counted while listeners are registered.
+   */
+  long getUncompressedBytes() {
+    return listeners.isEmpty() ? KnowledgeIoEvent.UNKNOWN : uncompressedBytes.get();
+  }
+
+  /**
+   * Sections of memory-mapped modules are sliced off the mapped buffer, all others are copied to the heap.
+   */
+  private InputStream readSectionData(String sectionDescription, long sectionLength) throws IOException {
+    if (sectionLength < 0 || sectionLength > Integer.MAX_VALUE) {
+      throw new IllegalFileFormatException("Illegal length " + sectionLength + " of section for " + sectionDescription + ".");
+    }
+    if (inputStream instanceof ByteBufferInputStream) {
+      return ((ByteBufferInputStream) inputStream).slice((int) sectionLength);
+    }
+    final byte[] sectionData = new byte[(int) sectionLength];
+    dataInput.readFully(sectionData);
+    return new ByteArrayInputStream(sectionData);
+  }
+
+  /**
+   * A section not matching its checksum is reported by {@link de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException},
+   * even if it has already failed to deserialize.
+   */
+  private KnowledgePackage deserializeSection(String packageName, long sectionLength, long checksum, InputStream sectionData) throws IOException, ClassNotFoundException {
+    final long startNanos = System.nanoTime();
+    final CheckedInputStream checkedData = checksum == ModuleChecksums.NONE ? null : new CheckedInputStream(sectionData, new CRC32());
+    InputStream decompressedData = compressionCodec.decompress(checkedData == null ? sectionData : checkedData);
+    MeasuringInputStream measuredData = null;
+    if (!listeners.isEmpty()) {
+      measuredData = new MeasuringInputStream(decompressedData);
+      decompressedData = measuredData;
+    }
+    Object streamedInObject;
+    try {
+      streamedInObject = packageSerializer.deserialize(decompressedData, classLoader);
+    }
+    finally {
+      try {
+        if (checkedData != null) {
+          ModuleChecksums.drain(checkedData);
+          ModuleChecksums.ensureChecksumMatches(checksum, checkedData.getChecksum().getValue(), "section of package '" + packageName + "'");
+        }
+      }
+      finally {
+        decompressedData.close();
+      }
+    }
+    final long deserializedNanos = System.nanoTime();
+    if (measuredData != null) {
+      final long inflateNanos = measuredData.getNanos();
+      final long decompressedLength = measuredData.getCount();
+      uncompressedBytes.addAndGet(decompressedLength);
+      listeners.phaseCompleted(KnowledgeIoPhase.INFLATE, packageName, startNanos, startNanos + inflateNanos, sectionLength, decompressedLength, 1);
+      listeners.phaseCompleted(KnowledgeIoPhase.DESERIALIZE, packageName, startNanos, deserializedNanos - inflateNanos, sectionLength, decompressedLength, 1);
+    }
+    final KnowledgePackage knowledgePackage = validateKnowledgePackage(packageName, streamedInObject);
+    listeners.phaseCompleted(KnowledgeIoPhase.VALIDATE, packageName, deserializedNanos, System.nanoTime(), KnowledgeIoEvent.UNKNOWN, KnowledgeIoEvent.UNKNOWN, 1);
+    return knowledgePackage;
+  }
+
+  private KnowledgePackage validateKnowledgePackage(String packageName, Object loadedObject) {
+    if (validationLevel != ValidationLevel.NONE && !(loadedObject instanceof KnowledgePackage)) {
+      throw new IllegalFileFormatException("Expected a knowledge package in section of package '" + packageName + "', but got "
+                                           + KnowledgeModuleReaderImpl.describeType(loadedObject) + ".");
+    }
+    final KnowledgePackage knowledgePackage = (KnowledgePackage) loadedObject;
+    if (validationLevel == ValidationLevel.FULL && !packageName.equals(knowledgePackage.getName())) {
+      throw new IllegalFileFormatException("Section of package '" + packageName + "' contains package '" + knowledgePackage.getName() + "'.");
+    }
+    return knowledgePackage;
+  }
+
+  class SectionDeserializer implements Callable<KnowledgePackage> {
+
+    private final String packageName;
+    private final long sectionLength;
+    private final long checksum;
+    private final InputStream sectionData;
+
+    private SectionDeserializer(String packageName, long sectionLength, long checksum, InputStream sectionData) {
+      this.packageName = packageName;
+      this.sectionLength = sectionLength;
+      this.checksum = checksum;
+      this.sectionData = sectionData;
+    }
+
+    public KnowledgePackage call() throws IOException, ClassNotFoundException {
+      return deserializeSection(packageName, sectionLength, checksum, sectionData);
+    }
+
+    String getPackageName() {
+      return packageName;
+    }
+
+    /**
+     * @return the serialized package, for callers which need its bytes rather than the package itself.
+     */
+    InputStream decompress() throws IOException {
+      return compressionCodec.decompress(sectionData);
+    }
+  }
+
+  private void skipSection(String sectionDescription, long sectionLength) throws IOException {
+    long remaining = sectionLength;
+    while (remaining > 0) {
+      long skipped = dataInput.skip(remaining);
+      if (skipped <= 0) {
+        if (dataInput.read() < 0) {
+          throw new EOFException("Unexpected end of input while skipping section of " + sectionDescription + ".");
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+class MappedFiles {
+
+  private MappedFiles() {
+  }
+
+  /**
+   * Maps all of <code>file</code> read-only. The file's channel is closed again before returning;
+   * the mapping stays valid until the returned buffer is garbage collected. Until then, the file cannot be deleted or
+   * replaced on Windows, and truncating it makes reads from the buffer fail with an {@link InternalError}.
+   *
+   * @see #readFully(File)
+   */
+  static MappedByteBuffer mapReadOnly(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = randomAccessFile.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, ensureSizeFits(file, channel.size()));
+    }
+    finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Reads all of <code>file</code> into a heap buffer, for files which may be replaced or changed in place while their
+   * content is still in use, e.g. watched modules.
+   */
+  static ByteBuffer readFully(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[ensureSizeFits(file, randomAccessFile.length())];
+      randomAccessFile.readFully(bytes);
+      return ByteBuffer.wrap(bytes);
+    }
+    finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static int ensureSizeFits(File file, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Cannot load knowledge module " + file + " of " + size + " bytes into memory, maximum is " + Integer.MAX_VALUE + " bytes.");
+    }
+    return (int) size;
+  }
+}
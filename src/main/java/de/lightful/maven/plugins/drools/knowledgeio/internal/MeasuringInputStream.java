@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the underlying stream and the time spent reading them.
+ */
+class MeasuringInputStream extends FilterInputStream {
+
+  private long count = 0;
+  private long nanos = 0;
+
+  MeasuringInputStream(InputStream inputStream) {
+    super(inputStream);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final long startNanos = System.nanoTime();
+    final int b = in.read();
+    nanos += System.nanoTime() - startNanos;
+    if (b >= 0) {
+      count++;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int lengthRead = in.read(bytes, offset, length);
+    nanos += System.nanoTime() - startNanos;
+    if (lengthRead > 0) {
+      count += lengthRead;
+    }
+    return lengthRead;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    final long startNanos = System.nanoTime();
+    final long skipped = in.skip(n);
+    nanos += System.nanoTime() - startNanos;
+    count += skipped;
+    return skipped;
+  }
+}
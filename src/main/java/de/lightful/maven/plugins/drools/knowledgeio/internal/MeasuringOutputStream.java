@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the underlying stream and the time spent writing, flushing and closing it.
+ */
+class MeasuringOutputStream extends FilterOutputStream {
+
+  private long count = 0;
+  private long nanos = 0;
+
+  MeasuringOutputStream(OutputStream outputStream) {
+    super(outputStream);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    final long startNanos = System.nanoTime();
+    out.write(b);
+    nanos += System.nanoTime() - startNanos;
+    count++;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    final long startNanos = System.nanoTime();
+    out.write(bytes, offset, length);
+    nanos += System.nanoTime() - startNanos;
+    count += length;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    final long startNanos = System.nanoTime();
+    out.flush();
+    nanos += System.nanoTime() - startNanos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    final long startNanos = System.nanoTime();
+    out.close();
+    nanos += System.nanoTime() - startNanos;
+  }
+}
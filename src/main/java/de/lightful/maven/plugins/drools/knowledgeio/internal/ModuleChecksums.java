@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * CRC-32 checksums protecting header, section data and section index of knowledge modules against truncation and
+ * corruption. Unlike {@link ModuleDigests}, they are cheap enough to be verified on every read.
+ */
+class ModuleChecksums {
+
+  /** Stands in for the checksums of modules written before file format 7, which have none. */
+  static final long NONE = -1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ModuleChecksums() {
+  }
+
+  static long checksum(byte[] data) {
+    final CRC32 checksum = new CRC32();
+    checksum.update(data, 0, data.length);
+    return checksum.getValue();
+  }
+
+  /**
+   * Computes the checksum of <code>length</code> bytes of <code>channel</code>, starting at <code>offset</code>,
+   * without changing the channel's position.
+   */
+  static long checksum(FileChannel channel, long offset, long length) throws IOException {
+    final CRC32 checksum = new CRC32();
+    final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+    long position = offset;
+    final long end = offset + length;
+    while (position < end) {
+      final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+      final int lengthRead = channel.read(chunk, position);
+      if (lengthRead < 0) {
+        throw new EOFException("Unexpected end of file at offset " + position + " while computing checksum.");
+      }
+      checksum.update(buffer, 0, lengthRead);
+      position += lengthRead;
+    }
+    return checksum.getValue();
+  }
+
+  static void write(DataOutputStream dataOutput, long checksum) throws IOException {
+    dataOutput.writeInt((int) checksum);
+  }
+
+  static long read(DataInputStream dataInput) throws IOException {
+    return dataInput.readInt() & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Reads <code>checkedInput</code> to its end, so that its checksum covers all of the data, including data left
+   * unread by decompressors or deserializers.
+   */
+  static void drain(InputStream checkedInput) throws IOException {
+    // usually only a few bytes are left, e.g. the end of a compressed stream
+    final byte[] buffer = new byte[512];
+    int lengthRead;
+    do {
+      lengthRead = checkedInput.read(buffer);
+    }
+    while (lengthRead >= 0);
+  }
+
+  static void ensureChecksumMatches(long expectedChecksum, long actualChecksum, String description) {
+    if (expectedChecksum != actualChecksum) {
+      throw new ChecksumMismatchException("Checksum mismatch in " + description + " of knowledge module: expected "
+                                          + Long.toHexString(expectedChecksum) + ", but got " + Long.toHexString(actualChecksum) + ".");
+    }
+  }
+}
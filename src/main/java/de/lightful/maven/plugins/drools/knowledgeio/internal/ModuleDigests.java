@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import org.drools.definition.KnowledgePackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests identifying knowledge modules by content, e.g. as cache keys or as base of delta modules.
+ */
+public class ModuleDigests {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private ModuleDigests() {
+  }
+
+  public static byte[] digest(ByteBuffer moduleBytes) {
+    MessageDigest messageDigest = createMessageDigest();
+    messageDigest.update(moduleBytes);
+    return messageDigest.digest();
+  }
+
+  public static byte[] digest(InputStream inputStream) throws IOException {
+    MessageDigest messageDigest = createMessageDigest();
+    byte[] buffer = new byte[8192];
+    int lengthRead;
+    while ((lengthRead = inputStream.read(buffer)) >= 0) {
+      messageDigest.update(buffer, 0, lengthRead);
+    }
+    return messageDigest.digest();
+  }
+
+  public static byte[] digest(File moduleFile) throws IOException {
+    return digest(MappedFiles.mapReadOnly(moduleFile));
+  }
+
+  /**
+   * Digests the uncompressed section data a writer using <code>packageSerializer</code> would produce for
+   * <code>knowledgePackage</code>, without buffering it.
+   */
+  public static byte[] digestSerializedForm(KnowledgePackage knowledgePackage, PackageSerializer packageSerializer) throws IOException {
+    final DigestOutputStream digestOutput = new DigestOutputStream(new DiscardingOutputStream(), createMessageDigest());
+    try {
+      packageSerializer.serialize(knowledgePackage, digestOutput);
+    }
+    finally {
+      digestOutput.close();
+    }
+    return digestOutput.getMessageDigest().digest();
+  }
+
+  private static MessageDigest createMessageDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Digest algorithm " + DIGEST_ALGORITHM + " not available.", e);
+    }
+  }
+
+  private static class DiscardingOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+    }
+  }
+}
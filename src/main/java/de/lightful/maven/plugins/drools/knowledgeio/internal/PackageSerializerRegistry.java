@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the package serializer recorded in a module header among the built-in and the registered serializers.
+ */
+public class PackageSerializerRegistry {
+
+  private final ConcurrentMap<Byte, PackageSerializer> registeredSerializers = new ConcurrentHashMap<Byte, PackageSerializer>();
+
+  /**
+   * @throws IllegalArgumentException if the id of <code>packageSerializer</code> is reserved or already registered
+   * for another serializer.
+   */
+  public void register(PackageSerializer packageSerializer) {
+    final byte id = packageSerializer.getId();
+    if (id >= 0 && id <= PackageSerializers.MAXIMUM_BUILT_IN_ID) {
+      throw new IllegalArgumentException("Package serializer id " + id + " is reserved for built-in serializers.");
+    }
+    final PackageSerializer registeredSerializer = registeredSerializers.putIfAbsent(id, packageSerializer);
+    if (registeredSerializer != null && registeredSerializer != packageSerializer) {
+      throw new IllegalArgumentException("Package serializer id " + id + " is already registered for " + registeredSerializer + ".");
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no serializer with the given id.
+   */
+  PackageSerializer forId(byte id) {
+    final PackageSerializer registeredSerializer = registeredSerializers.get(id);
+    return registeredSerializer == null ? PackageSerializers.forId(id) : registeredSerializer;
+  }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses Deflate sections with inflaters taken from a pool and returned to it on close. All other codecs and
+ * compression are delegated unchanged; GZIP streams manage their inflaters internally and cannot use the pool.
+ */
+class PooledInflaterCompressionCodec implements CompressionCodec {
+
+  private final CompressionCodec compressionCodec;
+  private final InflaterPool inflaterPool;
+
+  PooledInflaterCompressionCodec(CompressionCodec compressionCodec, InflaterPool inflaterPool) {
+    this.compressionCodec = compressionCodec;
+    this.inflaterPool = inflaterPool;
+  }
+
+  public byte getId() {
+    return compressionCodec.getId();
+  }
+
+  public OutputStream compress(OutputStream outputStream) throws IOException {
+    return compressionCodec.compress(outputStream);
+  }
+
+  public InputStream decompress(InputStream inputStream) throws IOException {
+    if (compressionCodec.getId() != CompressionCodecs.DEFLATE_ID) {
+      return compressionCodec.decompress(inputStream);
+    }
+    final Inflater inflater = inflaterPool.acquire();
+    return new InflaterInputStream(inputStream, inflater) {
+      private boolean released = false;
+
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        }
+        finally {
+          if (!released) {
+            released = true;
+            inflaterPool.release(inflater);
+          }
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return compressionCodec.toString();
+  }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeRuleManifest;
+import de.lightful.maven.plugins.drools.knowledgeio.RuleFilter;
+import org.drools.definition.KnowledgePackage;
+import org.drools.WorkingMemory;
+import org.drools.definitions.impl.KnowledgePackageImp;
+import org.drools.rule.DialectRuntimeData;
+import org.drools.rule.JavaDialectRuntimeData;
+import org.drools.rule.Package;
+import org.drools.rule.Rule;
+import org.drools.spi.Consequence;
+import org.drools.spi.KnowledgeHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Describes the rules of knowledge packages and applies {@link RuleFilter}s to them.
+ */
+class RuleManifests {
+
+  private static final String DEFAULT_CONSEQUENCE_INVOKER_SUFFIX = "DefaultConsequenceInvoker";
+
+  /**
+   * Matches what follows the rule class name in the names of the classes generated for the rule: nothing for the rule
+   * class itself, the invoker kind and number (e.g. <code>Eval0Invoker</code>) for the consequence and condition
+   * invokers, and the names of their inner classes.
+   */
+  private static final Pattern RULE_CLASS_SUFFIX = Pattern.compile("(" + DEFAULT_CONSEQUENCE_INVOKER_SUFFIX + "|[A-Z][A-Za-z]*[0-9]+Invoker)?(\\$.*)?");
+  private static final Consequence UNWIRED_CONSEQUENCE = new UnwiredConsequence();
+
+  private RuleManifests() {
+  }
+
+  /**
+   * @return rules of <code>knowledgePackage</code>, <code>null</code> if it is not a Drools core package.
+   */
+  static List<KnowledgeRuleManifest> describe(KnowledgePackage knowledgePackage) {
+    if (!(knowledgePackage instanceof KnowledgePackageImp)) {
+      return null;
+    }
+    final Package pkg = ((KnowledgePackageImp) knowledgePackage).pkg;
+    List<KnowledgeRuleManifest> rules = new ArrayList<KnowledgeRuleManifest>();
+    for (Rule rule : pkg.getRules()) {
+      rules.add(describe(pkg.getName(), rule));
+    }
+    return rules;
+  }
+
+  /**
+   * Sections are read if their package has no recorded rules, declares types, or has a rule accepted by
+   * <code>ruleFilter</code>. Packages without any rules are read as well.
+   */
+  static boolean isReadRequired(DroolsKnowledgeModuleSection section, RuleFilter ruleFilter) {
+    if (section.rules == null || section.rules.isEmpty() || section.typeDeclarationCount != 0) {
+      return true;
+    }
+    for (KnowledgeRuleManifest rule : section.rules) {
+      if (ruleFilter.accept(rule)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the rules rejected by <code>ruleFilter</code> from <code>knowledgePackage</code>, including their generated
+   * consequence and condition classes.
+   *
+   * @return whether the package is still needed: it keeps at least one rule, declares types or had no rules to begin with.
+   */
+  static boolean removeRejectedRules(KnowledgePackage knowledgePackage, RuleFilter ruleFilter) {
+    if (!(knowledgePackage instanceof KnowledgePackageImp)) {
+      return true;
+    }
+    final Package pkg = ((KnowledgePackageImp) knowledgePackage).pkg;
+    final Rule[] rules = pkg.getRules();
+    int removedRuleCount = 0;
+    for (Rule rule : rules) {
+      if (!ruleFilter.accept(describe(pkg.getName(), rule))) {
+        removeRule(pkg, rule);
+        removedRuleCount++;
+      }
+    }
+    return removedRuleCount < rules.length || rules.length == 0 || !pkg.getTypeDeclarations().isEmpty();
+  }
+
+  /**
+   * Rules of packages not yet added to a knowledge base are not wired to their consequences and conditions, which
+   * Drools relies on to find the rule's classes. Their classes are found by the name of the rule class instead, which
+   * the consequence invoker to be wired to the rule starts with. The rule then gets a stand-in consequence, so that
+   * Drools' own cleanup finds nothing left to remove.
+   */
+  private static void removeRule(Package pkg, Rule rule) {
+    if (rule.getConsequence() == null) {
+      final DialectRuntimeData dialectData = pkg.getDialectRuntimeRegistry().getDialectData(rule.getDialect());
+      if (dialectData instanceof JavaDialectRuntimeData) {
+        removeRuleClasses((JavaDialectRuntimeData) dialectData, rule);
+      }
+      rule.setConsequence(UNWIRED_CONSEQUENCE);
+    }
+    pkg.removeRule(rule);
+  }
+
+  /**
+   * Removes the rule class and all invokers generated for the rule: its consequence and the eval, predicate, return
+   * value and accumulate invokers of its conditions, along with their inner classes.
+   */
+  private static void removeRuleClasses(JavaDialectRuntimeData dialectData, Rule rule) {
+    final String ruleClassName = findRuleClassName(dialectData, rule);
+    if (ruleClassName == null) {
+      return;
+    }
+    Set<String> classNames = new LinkedHashSet<String>();
+    for (Object invokerClassName : dialectData.getInvokers().keySet()) {
+      classNames.add((String) invokerClassName);
+    }
+    for (String resourceName : dialectData.list()) {
+      classNames.add(toClassName(resourceName));
+    }
+    for (String className : classNames) {
+      if (className.startsWith(ruleClassName) && RULE_CLASS_SUFFIX.matcher(className.substring(ruleClassName.length())).matches()) {
+        dialectData.remove(className);
+      }
+    }
+  }
+
+  /**
+   * @return name of the class generated for <code>rule</code>, <code>null</code> if it has no consequence invoker.
+   */
+  private static String findRuleClassName(JavaDialectRuntimeData dialectData, Rule rule) {
+    for (Object invoker : dialectData.getInvokers().entrySet()) {
+      final Map.Entry invokerEntry = (Map.Entry) invoker;
+      final String invokerClassName = (String) invokerEntry.getKey();
+      if (invokerEntry.getValue() == rule && invokerClassName.endsWith(DEFAULT_CONSEQUENCE_INVOKER_SUFFIX)) {
+        return invokerClassName.substring(0, invokerClassName.length() - DEFAULT_CONSEQUENCE_INVOKER_SUFFIX.length());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param resourceName class file name as listed by the class store, e.g. <code>org/example/Rule_one_0.class</code>.
+   */
+  private static String toClassName(String resourceName) {
+    final String classFileName = resourceName.endsWith(".class") ? resourceName.substring(0, resourceName.length() - ".class".length()) : resourceName;
+    return classFileName.replace('/', '.');
+  }
+
+  private static KnowledgeRuleManifest describe(String packageName, Rule rule) {
+    Map<String, String> metaAttributes = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, Object> metaAttribute : rule.getMetaData().entrySet()) {
+      metaAttributes.put(metaAttribute.getKey(), describeMetaValue(metaAttribute.getValue()));
+    }
+    return new KnowledgeRuleManifest(packageName, rule.getName(), rule.getAgendaGroup(), metaAttributes);
+  }
+
+  /**
+   * Drools records attributes declared without a value (e.g. <code>@preview</code>) with an empty map as value.
+   */
+  private static String describeMetaValue(Object value) {
+    if (value == null || (value instanceof Map && ((Map) value).isEmpty())) {
+      return "";
+    }
+    return value.toString();
+  }
+
+  /**
+   * Stands in for the consequence of a rule being removed before it was wired; its class is not among the package's classes.
+   */
+  private static class UnwiredConsequence implements Consequence {
+
+    public String getName() {
+      return "default";
+    }
+
+    public void evaluate(KnowledgeHelper knowledgeHelper, WorkingMemory workingMemory) {
+      throw new IllegalStateException("Consequence of a removed rule must not be evaluated.");
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.IllegalFileFormatException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeRuleManifest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the section index of indexed knowledge modules.
+ */
+class SectionIndex {
+
+  /**
+   * Passed as index length if the number of bytes left for the index is not known.
+   */
+  static final long UNKNOWN_LENGTH = -1;
+
+  /**
+   * Bytes taken by a rule with empty name, empty agenda group and no meta attributes.
+   */
+  private static final int MINIMUM_RULE_LENGTH = 3 * Short.SIZE / 8;
+
+  /**
+   * Upper bound on list capacities if the index length is not known, so corrupt counts cannot allocate huge lists.
+   */
+  private static final int MAXIMUM_INITIAL_CAPACITY = 64;
+
+  private SectionIndex() {
+  }
+
+  /**
+   * Writes the index in the current file format.
+   */
+  static void write(DataOutputStream dataOutput, List<DroolsKnowledgeModuleSection> sections) throws IOException {
+    final CRC32 checksum = new CRC32();
+    final DataOutputStream indexOutput = new DataOutputStream(new CheckedOutputStream(dataOutput, checksum));
+    indexOutput.writeInt(sections.size());
+    for (DroolsKnowledgeModuleSection section : sections) {
+      indexOutput.writeUTF(section.packageName);
+      indexOutput.writeLong(section.offset);
+      indexOutput.writeLong(section.length);
+      indexOutput.writeInt(section.ruleCount);
+      indexOutput.writeInt(section.typeDeclarationCount);
+      ModuleChecksums.write(indexOutput, section.checksum);
+      writeRules(indexOutput, section.rules);
+    }
+    ModuleChecksums.write(dataOutput, checksum.getValue());
+  }
+
+  /**
+   * @param indexLength number of bytes from the start of the index up to the trailer, or {@link #UNKNOWN_LENGTH}.
+   * @throws de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException if the index does not match its checksum.
+   * @throws IllegalFileFormatException if a count in the index exceeds the bytes left for the index.
+   */
+  static List<DroolsKnowledgeModuleSection> read(DataInputStream dataInput, long fileFormatVersion, long indexLength) throws IOException {
+    try {
+      return readIndex(dataInput, fileFormatVersion, indexLength);
+    }
+    catch (EOFException e) {
+      throw new IllegalFileFormatException("Section index of knowledge module is truncated.", e);
+    }
+  }
+
+  private static List<DroolsKnowledgeModuleSection> readIndex(DataInputStream dataInput, long fileFormatVersion, long indexLength) throws IOException {
+    final CRC32 checksum = new CRC32();
+    final MeasuringInputStream measuringInput = new MeasuringInputStream(new CheckedInputStream(dataInput, checksum));
+    final DataInputStream indexInput = new DataInputStream(measuringInput);
+    final int checksumLength = fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS ? Integer.SIZE / 8 : 0;
+    final int sectionCount = indexInput.readInt();
+    final int initialCapacity = ensureCountFits(sectionCount, minimumEntryLength(fileFormatVersion), remainingLength(indexLength, measuringInput, checksumLength),
+                                                "section count", "section index");
+    List<DroolsKnowledgeModuleSection> sections = new ArrayList<DroolsKnowledgeModuleSection>(initialCapacity);
+    for (int i = 0; i < sectionCount; i++) {
+      DroolsKnowledgeModuleSection section = new DroolsKnowledgeModuleSection();
+      section.packageName = indexInput.readUTF();
+      section.offset = indexInput.readLong();
+      section.length = indexInput.readLong();
+      if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_MANIFEST) {
+        section.ruleCount = indexInput.readInt();
+        section.typeDeclarationCount = indexInput.readInt();
+      }
+      if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS) {
+        section.checksum = ModuleChecksums.read(indexInput);
+      }
+      if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_RULE_MANIFEST) {
+        section.rules = readRules(indexInput, section.packageName, remainingLength(indexLength, measuringInput, checksumLength));
+      }
+      sections.add(section);
+    }
+    if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS) {
+      ModuleChecksums.ensureChecksumMatches(ModuleChecksums.read(dataInput), checksum.getValue(), "section index");
+    }
+    return sections;
+  }
+
+  /**
+   * Reads the index of a module held in <code>module</code>, locating it through the trailer at the buffer's limit.
+   * The position of <code>module</code> is left unchanged.
+   */
+  static List<DroolsKnowledgeModuleSection> read(ByteBuffer module, long fileFormatVersion) throws IOException {
+    final int trailerOffset = module.limit() - Long.SIZE / 8;
+    final long indexOffset = trailerOffset < 0 ? -1 : module.getLong(trailerOffset);
+    if (indexOffset < 1 || indexOffset > trailerOffset) {
+      throw new IllegalFileFormatException("Illegal section index offset " + indexOffset + " in trailer of knowledge module.");
+    }
+    final ByteBuffer index = module.duplicate();
+    index.position((int) indexOffset);
+    return read(new DataInputStream(new ByteBufferInputStream(index)), fileFormatVersion, trailerOffset - indexOffset);
+  }
+
+  /**
+   * Bytes taken by an index entry with empty package name and no rules.
+   */
+  private static int minimumEntryLength(long fileFormatVersion) {
+    int entryLength = Short.SIZE / 8 + 2 * Long.SIZE / 8;
+    if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_MANIFEST) {
+      entryLength += 2 * Integer.SIZE / 8;
+    }
+    if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_CHECKSUMS) {
+      entryLength += Integer.SIZE / 8;
+    }
+    if (fileFormatVersion >= KnowledgeModule.FILE_FORMAT_WITH_RULE_MANIFEST) {
+      entryLength += Integer.SIZE / 8;
+    }
+    return entryLength;
+  }
+
+  private static long remainingLength(long indexLength, MeasuringInputStream measuringInput, int checksumLength) {
+    return indexLength == UNKNOWN_LENGTH ? UNKNOWN_LENGTH : indexLength - measuringInput.getCount() - checksumLength;
+  }
+
+  /**
+   * @return initial capacity of a list holding <code>count</code> elements.
+   * @throws IllegalFileFormatException if <code>count</code> elements of <code>minimumLength</code> bytes each do not
+   * fit into <code>remainingLength</code> bytes.
+   */
+  private static int ensureCountFits(int count, int minimumLength, long remainingLength, String countName, String location) {
+    if (count < 0 || (remainingLength != UNKNOWN_LENGTH && (long) count * minimumLength > remainingLength)) {
+      throw new IllegalFileFormatException("Illegal " + countName + " " + count + " in " + location + " of knowledge module.");
+    }
+    return remainingLength == UNKNOWN_LENGTH ? Math.min(count, MAXIMUM_INITIAL_CAPACITY) : count;
+  }
+
+  private static void writeRules(DataOutputStream indexOutput, List<KnowledgeRuleManifest> rules) throws IOException {
+    if (rules == null) {
+      indexOutput.writeInt(DroolsKnowledgeModuleSection.UNKNOWN);
+      return;
+    }
+    indexOutput.writeInt(rules.size());
+    for (KnowledgeRuleManifest rule : rules) {
+      indexOutput.writeUTF(rule.getName());
+      indexOutput.writeUTF(rule.getAgendaGroup());
+      indexOutput.writeShort(rule.getMetaAttributes().size());
+      for (Map.Entry<String, String> metaAttribute : rule.getMetaAttributes().entrySet()) {
+        indexOutput.writeUTF(metaAttribute.getKey());
+        indexOutput.writeUTF(metaAttribute.getValue());
+      }
+    }
+  }
+
+  private static List<KnowledgeRuleManifest> readRules(DataInputStream indexInput, String packageName, long remainingLength) throws IOException {
+    final int ruleCount = indexInput.readInt();
+    if (ruleCount == DroolsKnowledgeModuleSection.UNKNOWN) {
+      return null;
+    }
+    final int initialCapacity = ensureCountFits(ruleCount, MINIMUM_RULE_LENGTH, remainingLength == UNKNOWN_LENGTH ? UNKNOWN_LENGTH : remainingLength - Integer.SIZE / 8,
+                                                "rule count", "section index entry of package '" + packageName + "'");
+    List<KnowledgeRuleManifest> rules = new ArrayList<KnowledgeRuleManifest>(initialCapacity);
+    for (int i = 0; i < ruleCount; i++) {
+      final String name = indexInput.readUTF();
+      final String agendaGroup = indexInput.readUTF();
+      final int metaAttributeCount = indexInput.readUnsignedShort();
+      Map<String, String> metaAttributes = new LinkedHashMap<String, String>();
+      for (int j = 0; j < metaAttributeCount; j++) {
+        metaAttributes.put(indexInput.readUTF(), indexInput.readUTF());
+      }
+      rules.add(new KnowledgeRuleManifest(packageName, name, agendaGroup, metaAttributes));
+    }
+    return rules;
+  }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileFormatVersionException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleManifest;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.core.util.DroolsStreamUtils;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+import static de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleReaderImplTestData.*;
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class AppendingKnowledgeModuleWriterImplTest {
+
+  private File moduleFile;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    moduleFile = File.createTempFile("knowledge-module", ".dkm");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    moduleFile.delete();
+  }
+
+  @Test
+  public void testAppendsPackagesToExistingModule() throws IOException, ClassNotFoundException {
+    writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    final Collection<KnowledgePackage> knowledgePackages = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null).readKnowledgePackages();
+    assertThat(knowledgePackages).hasSize(2);
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null).readManifest();
+    assertThat(manifest.getPackageNames()).containsExactly("org.example", "org.example.other");
+    assertThat(manifest.getRuleCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void testLeavesExistingSectionsUntouched() throws IOException {
+    final byte[] originalModule = writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final long originalIndexOffset = ByteBuffer.wrap(originalModule).getLong(originalModule.length - Long.SIZE / 8);
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    final byte[] appendedModule = ArrayUtils.slice(readMappedFile(), 0, (int) originalIndexOffset - 1);
+    assertThat(appendedModule).isEqualTo(ArrayUtils.slice(originalModule, 0, (int) originalIndexOffset - 1));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsPackagesAlreadyInModule() throws IOException {
+    writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+  }
+
+  @Test(expectedExceptions = InvalidFileFormatVersionException.class)
+  public void testRejectsModuleOfOlderFileFormat() throws IOException {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(content, compile(ExampleDroolsCode.THREE_SIMPLE_RULES), true);
+    writeBytes(ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_1, DROOLS_5_2_0_FINAL, content.toByteArray()));
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsModuleWithKnowledgeBaseSnapshot() throws IOException {
+    final KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgeBase(knowledgeBase);
+    writeBytes(outputStream.toByteArray());
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsDeltaModule() throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeDelta(new byte[] {1, 2, 3}, compile(ExampleDroolsCode.THREE_SIMPLE_RULES), Collections.<String>emptySet());
+    writeBytes(outputStream.toByteArray());
+
+    new AppendingKnowledgeModuleWriterImpl(moduleFile).writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+  }
+
+  private byte[] writeModuleFile(Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    writeBytes(outputStream.toByteArray());
+    return outputStream.toByteArray();
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    final FileOutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      outputStream.write(bytes);
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  private byte[] readMappedFile() throws IOException {
+    final ByteBuffer mappedModule = MappedFiles.mapReadOnly(moduleFile);
+    final byte[] bytes = new byte[mappedModule.remaining()];
+    mappedModule.get(bytes);
+    return bytes;
+  }
+
+  private Collection<KnowledgePackage> compile(String drl) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+}
@@ -41,4 +41,29 @@ public class ExampleDroolsCode {
       "  then\n" +
       "    System.out.println(\"Hello\");\n" +
       "end\n";
+
+  public static final String TWO_MORE_RULES =
+      "package org.example.other;\n" +
+      "dialect \"java\"\n" +
+      "\n" +
+      "rule \"four\"\n" +
+      "  when\n" +
+      "  then\n" +
+      "    System.out.println(\"Hello\");\n" +
+      "end\n" +
+      "\n" +
+      "rule \"five\"\n" +
+      "  when\n" +
+      "  then\n" +
+      "    System.out.println(\"Hello\");\n" +
+      "end\n";
+  public static final String CHANGED_OTHER_RULES =
+      "package org.example.other;\n" +
+      "dialect \"java\"\n" +
+      "\n" +
+      "rule \"six\"\n" +
+      "  when\n" +
+      "  then\n" +
+      "    System.out.println(\"Hello\");\n" +
+      "end\n";
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Collection;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+@Test
+public class FileKnowledgeModuleWriterImplTest {
+
+  private File directory;
+  private File moduleFile;
+  private FileKnowledgeModuleWriterImpl writer;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = File.createTempFile("knowledge-modules", "");
+    directory.delete();
+    directory.mkdir();
+    moduleFile = new File(directory, "module.dkm");
+    writer = new FileKnowledgeModuleWriterImpl(moduleFile, CompressionCodecs.DEFLATE, PackageSerializers.JAVA);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testWritesSameModuleAsStreamWriter() throws IOException {
+    final Collection<KnowledgePackage> knowledgePackages = compile(ExampleDroolsCode.THREE_SIMPLE_RULES);
+    writer.writeKnowledgePackages(knowledgePackages);
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    assertThat(readMappedFile()).isEqualTo(outputStream.toByteArray());
+    assertThat(directory.list()).containsOnly("module.dkm");
+  }
+
+  @Test
+  public void testWritesSameModuleToNonGatheringChannel() throws IOException {
+    final Collection<KnowledgePackage> knowledgePackages = compile(ExampleDroolsCode.THREE_SIMPLE_RULES);
+    final ByteArrayOutputStream channelOutputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(Channels.newChannel(channelOutputStream), CompressionCodecs.DEFLATE, PackageSerializers.JAVA)
+        .writeKnowledgePackages(knowledgePackages);
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    assertThat(channelOutputStream.toByteArray()).isEqualTo(outputStream.toByteArray());
+  }
+
+  @Test
+  public void testReplacesExistingModule() throws IOException, ClassNotFoundException {
+    writer.writeKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    writer.writeKnowledgePackages(compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    final Collection<KnowledgePackage> knowledgePackages = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null).readKnowledgePackages();
+    assertThat(knowledgePackages).hasSize(1);
+    assertThat(knowledgePackages.iterator().next().getName()).isEqualTo("org.example.other");
+    assertThat(directory.list()).containsOnly("module.dkm");
+  }
+
+  @Test
+  public void testFailedWriteLeavesExistingModuleUntouched() throws IOException {
+    writer.writeKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final byte[] originalModule = readMappedFile();
+
+    try {
+      writer.writeDelta(new File(directory, "missing.dkm"), compile(ExampleDroolsCode.TWO_MORE_RULES));
+      fail("Expected delta against missing base module to fail.");
+    }
+    catch (FileNotFoundException expected) {
+    }
+    assertThat(readMappedFile()).isEqualTo(originalModule);
+    assertThat(directory.list()).containsOnly("module.dkm");
+  }
+
+  private byte[] readMappedFile() throws IOException {
+    final ByteBuffer mappedModule = MappedFiles.mapReadOnly(moduleFile);
+    final byte[] bytes = new byte[mappedModule.remaining()];
+    mappedModule.get(bytes);
+    return bytes;
+  }
+
+  private Collection<KnowledgePackage> compile(String drl) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+}
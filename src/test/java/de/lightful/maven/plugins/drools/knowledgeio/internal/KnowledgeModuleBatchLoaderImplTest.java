@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleBatch;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.LoadedKnowledgeModule;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+@Test
+public class KnowledgeModuleBatchLoaderImplTest {
+
+  private List<File> moduleFiles;
+
+  @BeforeMethod
+  public void setUp() {
+    moduleFiles = new ArrayList<File>();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    for (File moduleFile : moduleFiles) {
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testLoadsPackagesOfAllModulesInModuleOrder() throws IOException {
+    final File firstModuleFile = writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final File secondModuleFile = writeModuleFile(compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    final KnowledgeModuleBatch batch = createBatchLoader(4, null).load(Arrays.asList(secondModuleFile, firstModuleFile), getClass().getClassLoader());
+
+    assertThat(packageNames(batch.getKnowledgePackages())).containsExactly("org.example.other", "org.example");
+    assertThat(batch.getLoadedModules()).hasSize(2);
+    final LoadedKnowledgeModule firstLoadedModule = batch.getLoadedModules().get(0);
+    assertThat(firstLoadedModule.getModuleFile()).isEqualTo(secondModuleFile);
+    assertThat(firstLoadedModule.isDuplicate()).isFalse();
+    assertThat(firstLoadedModule.getDigest()).isEqualTo(ModuleDigests.digest(secondModuleFile));
+    assertThat(firstLoadedModule.getLoadNanos()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testLoadsModulesOfSameContentOnce() throws IOException {
+    final Collection<KnowledgePackage> knowledgePackages = compile(ExampleDroolsCode.THREE_SIMPLE_RULES);
+    final File firstModuleFile = writeModuleFile(knowledgePackages);
+    final File secondModuleFile = writeModuleFile(knowledgePackages);
+
+    final KnowledgeModuleBatch batch = createBatchLoader(1, null).load(Arrays.asList(firstModuleFile, secondModuleFile), getClass().getClassLoader());
+
+    assertThat(batch.getKnowledgePackages()).hasSize(1);
+    final LoadedKnowledgeModule duplicate = batch.getLoadedModules().get(1);
+    assertThat(duplicate.isDuplicate()).isTrue();
+    assertThat(duplicate.getDuplicateOf()).isEqualTo(firstModuleFile);
+    assertThat(duplicate.getLoadNanos()).isEqualTo(0);
+    assertThat(duplicate.getKnowledgePackages()).isEqualTo(batch.getLoadedModules().get(0).getKnowledgePackages());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsSamePackageInModulesOfDifferentContent() throws IOException {
+    final File firstModuleFile = writeModuleFile(compile(ExampleDroolsCode.TWO_MORE_RULES));
+    final File secondModuleFile = writeModuleFile(compile(ExampleDroolsCode.CHANGED_OTHER_RULES));
+
+    createBatchLoader(2, null).load(Arrays.asList(firstModuleFile, secondModuleFile), getClass().getClassLoader());
+  }
+
+  @Test
+  public void testReportsModuleWhichFailedToLoad() throws IOException {
+    final File validModuleFile = writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final File invalidModuleFile = File.createTempFile("knowledge-module", ".dkm");
+    moduleFiles.add(invalidModuleFile);
+    final OutputStream outputStream = new FileOutputStream(invalidModuleFile);
+    try {
+      outputStream.write("not a knowledge module".getBytes("UTF-8"));
+    }
+    finally {
+      outputStream.close();
+    }
+
+    try {
+      createBatchLoader(2, null).load(Arrays.asList(validModuleFile, invalidModuleFile), getClass().getClassLoader());
+      fail("Expected KnowledgeModuleReadException");
+    }
+    catch (KnowledgeModuleReadException e) {
+      assertThat(e.getMessage()).contains(invalidModuleFile.getName());
+    }
+  }
+
+  @Test
+  public void testStartsNoMoreWorkersThanParallelismAllows() throws IOException {
+    final List<Runnable> workers = new ArrayList<Runnable>();
+    final Executor recordingExecutor = new Executor() {
+      public void execute(Runnable worker) {
+        workers.add(worker);
+        worker.run();
+      }
+    };
+    List<File> batch = new ArrayList<File>();
+    for (int i = 0; i < 5; i++) {
+      batch.add(writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES)));
+    }
+
+    createBatchLoader(3, recordingExecutor).load(batch, getClass().getClassLoader());
+
+    assertThat(workers).as("workers besides the calling thread").hasSize(2);
+  }
+
+  private KnowledgeModuleBatchLoaderImpl createBatchLoader(int parallelism, Executor executor) {
+    return new KnowledgeModuleBatchLoaderImpl(new KnowledgeModuleLoaderImpl(VersionCheckStrategy.VERSIONS_MUST_MATCH), parallelism, executor);
+  }
+
+  private List<String> packageNames(List<KnowledgePackage> knowledgePackages) {
+    List<String> packageNames = new ArrayList<String>();
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      packageNames.add(knowledgePackage.getName());
+    }
+    return packageNames;
+  }
+
+  private File writeModuleFile(Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    final File moduleFile = File.createTempFile("knowledge-module", ".dkm");
+    moduleFiles.add(moduleFile);
+    final OutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    }
+    finally {
+      outputStream.close();
+    }
+    return moduleFile;
+  }
+
+  private Collection<KnowledgePackage> compile(String... drls) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    for (String drl : drls) {
+      knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    }
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReader;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+@Test
+public class KnowledgeModuleCacheImplTest {
+
+  private byte[] module;
+  private byte[] otherModule;
+  private ClassLoader classLoader = getClass().getClassLoader();
+
+  @BeforeClass
+  public void setUpModules() throws IOException {
+    module = writeModule(ExampleDroolsCode.THREE_SIMPLE_RULES);
+    otherModule = writeModule(ExampleDroolsCode.TWO_MORE_RULES);
+  }
+
+  @Test
+  public void testReturnsCachedPackagesForSameBytes() throws IOException, ClassNotFoundException {
+    KnowledgeModuleCacheImpl cache = new KnowledgeModuleCacheImpl(new KnowledgeIoFactory(), 2, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    final Collection<KnowledgePackage> firstRead = cache.readKnowledgePackages(new ByteArrayInputStream(module), classLoader);
+    final Collection<KnowledgePackage> secondRead = cache.readKnowledgePackages(new ByteArrayInputStream(module.clone()), classLoader);
+
+    assertThat(firstRead).hasSize(1);
+    assertThat(secondRead).isSameAs(firstRead);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLoadsSameBytesAgainForOtherClassLoader() throws IOException, ClassNotFoundException {
+    KnowledgeModuleCacheImpl cache = new KnowledgeModuleCacheImpl(new KnowledgeIoFactory(), 2, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    final ClassLoader otherClassLoader = new URLClassLoader(new URL[0], classLoader);
+    final Collection<KnowledgePackage> firstRead = cache.readKnowledgePackages(new ByteArrayInputStream(module), classLoader);
+    final Collection<KnowledgePackage> secondRead = cache.readKnowledgePackages(new ByteArrayInputStream(module), otherClassLoader);
+
+    assertThat(secondRead).isNotSameAs(firstRead);
+    assertThat(cache.getMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedModule() throws IOException, ClassNotFoundException {
+    KnowledgeModuleCacheImpl cache = new KnowledgeModuleCacheImpl(new KnowledgeIoFactory(), 1, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    cache.readKnowledgePackages(new ByteArrayInputStream(module), classLoader);
+    cache.readKnowledgePackages(new ByteArrayInputStream(otherModule), classLoader);
+    cache.readKnowledgePackages(new ByteArrayInputStream(module), classLoader);
+
+    assertThat(cache.getMissCount()).isEqualTo(3);
+    assertThat(cache.getEvictionCount()).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDoesNotCacheFailedLoads() throws IOException, ClassNotFoundException {
+    KnowledgeModuleCacheImpl cache = new KnowledgeModuleCacheImpl(new KnowledgeIoFactory(), 2, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    final byte[] truncatedModule = ArrayUtils.slice(module, 0, module.length / 2);
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.readKnowledgePackages(new ByteArrayInputStream(truncatedModule), classLoader);
+        fail("Exception expected");
+      }
+      catch (EOFException e) {
+        // caught by intention: module is truncated
+      }
+    }
+    assertThat(cache.getMissCount()).isEqualTo(2);
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCoalescesConcurrentLoadsOfSameModule() throws Exception {
+    final CountDownLatch loadMayFinish = new CountDownLatch(1);
+    final AtomicInteger loadCount = new AtomicInteger();
+    final KnowledgeIoFactory blockingFactory = new KnowledgeIoFactory() {
+      @Override
+      public KnowledgeModuleReader createKnowledgeModuleReader(InputStream inputStream, ClassLoader classLoader) {
+        loadCount.incrementAndGet();
+        try {
+          loadMayFinish.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.createKnowledgeModuleReader(inputStream, classLoader);
+      }
+    };
+    final KnowledgeModuleCacheImpl cache = new KnowledgeModuleCacheImpl(blockingFactory, 2, VersionCheckStrategy.VERSIONS_MUST_MATCH);
+    final Callable<Collection<KnowledgePackage>> read = new Callable<Collection<KnowledgePackage>>() {
+      public Collection<KnowledgePackage> call() throws Exception {
+        return cache.readKnowledgePackages(new ByteArrayInputStream(module), classLoader);
+      }
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<Collection<KnowledgePackage>> firstRead = executor.submit(read);
+      final Future<Collection<KnowledgePackage>> secondRead = executor.submit(read);
+      while (cache.getHitCount() + cache.getMissCount() < 2) {
+        Thread.sleep(10);
+      }
+      loadMayFinish.countDown();
+
+      assertThat(secondRead.get()).isSameAs(firstRead.get());
+      assertThat(loadCount.get()).isEqualTo(1);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private byte[] writeModule(String drl) throws IOException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgeBuilder.getKnowledgePackages());
+    return outputStream.toByteArray();
+  }
+}
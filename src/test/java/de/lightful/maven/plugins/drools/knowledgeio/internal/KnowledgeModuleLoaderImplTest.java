@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class KnowledgeModuleLoaderImplTest {
+
+  private byte[] module;
+  private KnowledgeModuleLoaderImpl loader;
+
+  @BeforeClass
+  public void setUpModule() throws IOException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.TWO_MORE_RULES.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.DEFLATE).writeKnowledgePackages(knowledgeBuilder.getKnowledgePackages());
+    module = outputStream.toByteArray();
+  }
+
+  @BeforeMethod
+  public void setUp() {
+    loader = new KnowledgeModuleLoaderImpl(VersionCheckStrategy.VERSIONS_MUST_MATCH);
+  }
+
+  @Test
+  public void testLoadsModuleFromStreamRepeatedly() throws IOException, ClassNotFoundException {
+    assertThat(packageNames(loader.load(new ByteArrayInputStream(module), getClass().getClassLoader()))).containsExactly("org.example", "org.example.other");
+    assertThat(packageNames(loader.load(new ByteArrayInputStream(module), getClass().getClassLoader()))).containsExactly("org.example", "org.example.other");
+  }
+
+  @Test
+  public void testLoadsModuleFromFile() throws IOException, ClassNotFoundException {
+    final File moduleFile = File.createTempFile("knowledge-module", ".dkm");
+    try {
+      final OutputStream outputStream = new FileOutputStream(moduleFile);
+      try {
+        outputStream.write(module);
+      }
+      finally {
+        outputStream.close();
+      }
+      assertThat(packageNames(loader.load(moduleFile, getClass().getClassLoader()))).containsExactly("org.example", "org.example.other");
+    }
+    finally {
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testLoadsModulesConcurrently() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Collection<KnowledgePackage>>> loads = new ArrayList<Future<Collection<KnowledgePackage>>>();
+      for (int i = 0; i < 16; i++) {
+        loads.add(executor.submit(new Callable<Collection<KnowledgePackage>>() {
+          public Collection<KnowledgePackage> call() throws Exception {
+            return loader.load(new ByteArrayInputStream(module), getClass().getClassLoader());
+          }
+        }));
+      }
+      for (Future<Collection<KnowledgePackage>> load : loads) {
+        assertThat(packageNames(load.get())).containsExactly("org.example", "org.example.other");
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testInflaterPoolReusesReleasedInflaters() {
+    final InflaterPool inflaterPool = new InflaterPool(1);
+    final Inflater inflater = inflaterPool.acquire();
+    inflaterPool.release(inflater);
+
+    assertThat(inflaterPool.acquire()).isSameAs(inflater);
+    assertThat(inflaterPool.acquire()).isNotSameAs(inflater);
+  }
+
+  @Test
+  public void testReusesGrownBufferForFollowingLargeLoad() throws IOException, ClassNotFoundException {
+    final byte[] largeModule = writeLargeModule();
+    final RecordingByteArrayPool bufferPool = new RecordingByteArrayPool();
+    loader = new KnowledgeModuleLoaderImpl(VersionCheckStrategy.VERSIONS_MUST_MATCH, bufferPool);
+
+    loader.load(new ByteArrayInputStream(largeModule), getClass().getClassLoader());
+    assertThat(bufferPool.released).hasSize(1);
+    final byte[] grownBuffer = bufferPool.released.get(0);
+    assertThat(grownBuffer.length).isGreaterThan(largeModule.length);
+
+    assertThat(packageNames(loader.load(new ByteArrayInputStream(largeModule), getClass().getClassLoader()))).containsExactly("org.example.large");
+    assertThat(bufferPool.acquired.get(1)).isSameAs(grownBuffer);
+    assertThat(bufferPool.released).hasSize(2);
+  }
+
+  @Test
+  public void testBufferPoolKeepsAtMostMaximumPooledBytes() {
+    final ByteArrayPool bufferPool = new ByteArrayPool(3, 2);
+    final byte[] shortArray = new byte[1];
+    final byte[] longArray = new byte[2];
+    bufferPool.release(shortArray);
+    bufferPool.release(longArray);
+    bufferPool.release(new byte[1]);
+    bufferPool.release(new byte[3]);
+
+    assertThat(bufferPool.acquire(1)).isSameAs(longArray);
+    assertThat(bufferPool.acquire(2)).isNotSameAs(shortArray);
+    assertThat(bufferPool.acquire(1)).isSameAs(shortArray);
+  }
+
+  /**
+   * @return an uncompressed module well beyond the loader's initial buffer length.
+   */
+  private byte[] writeLargeModule() throws IOException {
+    final Random random = new Random(42);
+    final char[] padding = new char[40 * 1024];
+    for (int i = 0; i < padding.length; i++) {
+      padding[i] = (char) ('a' + random.nextInt(26));
+    }
+    StringBuilder drl = new StringBuilder("package org.example.large;\n");
+    for (int i = 0; i < 4; i++) {
+      drl.append("rule \"rule ").append(i).append("\"\n  when\n  then\n    \"").append(padding).append("\".length();\nend\n");
+    }
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.toString().getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.NONE).writeKnowledgePackages(knowledgeBuilder.getKnowledgePackages());
+    assertThat(outputStream.size()).isGreaterThan(2 * 64 * 1024);
+    return outputStream.toByteArray();
+  }
+
+  private List<String> packageNames(Collection<KnowledgePackage> knowledgePackages) {
+    List<String> packageNames = new ArrayList<String>();
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      packageNames.add(knowledgePackage.getName());
+    }
+    return packageNames;
+  }
+
+  private static class RecordingByteArrayPool extends ByteArrayPool {
+
+    private final List<byte[]> acquired = new ArrayList<byte[]>();
+    private final List<byte[]> released = new ArrayList<byte[]>();
+
+    private RecordingByteArrayPool() {
+      super(Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    byte[] acquire(int minimumLength) {
+      final byte[] array = super.acquire(minimumLength);
+      acquired.add(array);
+      return array;
+    }
+
+    @Override
+    void release(byte[] array) {
+      released.add(array);
+      super.release(array);
+    }
+  }
+}
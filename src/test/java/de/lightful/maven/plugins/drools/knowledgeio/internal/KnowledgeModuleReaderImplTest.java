@@ -18,10 +18,27 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio.internal;
 
+import de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
 import de.lightful.maven.plugins.drools.knowledgeio.IllegalFileFormatException;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidBaseModuleException;
 import de.lightful.maven.plugins.drools.knowledgeio.InvalidDroolsRuntimeVersionException;
 import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileFormatVersionException;
+import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileHeaderException;
 import de.lightful.maven.plugins.drools.knowledgeio.InvalidFileMagicException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleManifest;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleReadException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeRuleManifest;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializer;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
+import de.lightful.maven.plugins.drools.knowledgeio.RuleFilter;
+import de.lightful.maven.plugins.drools.knowledgeio.ValidationLevel;
+import de.lightful.maven.plugins.drools.knowledgeio.VersionCheckStrategy;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
 import org.drools.builder.KnowledgeBuilder;
 import org.drools.builder.KnowledgeBuilderFactory;
 import org.drools.builder.ResourceType;
@@ -30,14 +47,31 @@ import org.drools.definition.KnowledgePackage;
 import org.drools.definition.rule.Rule;
 import org.drools.definitions.impl.KnowledgePackageImp;
 import org.drools.io.ResourceFactory;
+import org.drools.rule.JavaDialectRuntimeData;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static de.lightful.maven.plugins.drools.knowledgeio.internal.KnowledgeModuleReaderImplTestData.*;
 import static java.util.Collections.singleton;
@@ -259,4 +293,708 @@ public class KnowledgeModuleReaderImplTest {
     final Collection<Rule> rules = actualKnowledgePackages.iterator().next().getRules();
     assertThat(rules).hasSize(3);
   }
+
+  @Test
+  public void testReadsAllPackagesWrittenByWriter() throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Collection<KnowledgePackage> actualKnowledgePackages = reader.readKnowledgePackages();
+
+    assertThat(actualKnowledgePackages).hasSize(2);
+    assertThat(reader.getFileHeader().fileFormatVersion).isEqualTo(ByteBuffer.wrap(KnowledgeModule.CURRENT_FILE_FORMAT).getLong());
+  }
+
+  @Test(dataProvider = "getCompressionCodecs")
+  public void testReadsPackagesWithAnyCompressionCodec(CompressionCodec compressionCodec) throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages(compressionCodec)));
+    final Collection<KnowledgePackage> actualKnowledgePackages = reader.readKnowledgePackages();
+
+    assertThat(actualKnowledgePackages).hasSize(2);
+    assertThat(reader.getFileHeader().compressionCodecId).isEqualTo(compressionCodec.getId());
+  }
+
+  @DataProvider
+  private Object[][] getCompressionCodecs() {
+    return new Object[][] {
+        {CompressionCodecs.NONE},
+        {CompressionCodecs.GZIP},
+        {CompressionCodecs.DEFLATE},
+        {CompressionCodecs.DEFLATE_FAST},
+        {CompressionCodecs.DEFLATE_BEST},
+    };
+  }
+
+  @Test
+  public void testRejectsUnknownCompressionCodec() throws IOException, ClassNotFoundException {
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_3, DROOLS_5_2_0_FINAL, ArrayUtils.bytes(0x7f));
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input));
+    try {
+      reader.readKnowledgePackages();
+      fail("Exception expected");
+    }
+    catch (InvalidFileHeaderException e) {
+      assertThat(e.getMessage()).contains("compression codec");
+    }
+  }
+
+  @Test
+  public void testReadsPackagesWithRegisteredPackageSerializer() throws IOException, ClassNotFoundException {
+    final MarkingPackageSerializer packageSerializer = new MarkingPackageSerializer();
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.DEFLATE, packageSerializer).writeKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray()));
+    final PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+    packageSerializers.register(packageSerializer);
+    reader.setPackageSerializers(packageSerializers);
+
+    assertThat(reader.readKnowledgePackages()).hasSize(1);
+    assertThat(reader.getFileHeader().packageSerializerId).isEqualTo(MarkingPackageSerializer.ID);
+  }
+
+  @Test
+  public void testKeepsFirstPackageSerializerRegisteredForId() {
+    final MarkingPackageSerializer packageSerializer = new MarkingPackageSerializer();
+    final PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+    packageSerializers.register(packageSerializer);
+    packageSerializers.register(packageSerializer);
+    try {
+      packageSerializers.register(new MarkingPackageSerializer());
+      fail("Exception expected");
+    }
+    catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("already registered");
+    }
+
+    assertThat(packageSerializers.forId(MarkingPackageSerializer.ID)).isSameAs(packageSerializer);
+  }
+
+  @Test(expectedExceptions = InvalidFileHeaderException.class)
+  public void testRejectsUnknownPackageSerializer() throws IOException, ClassNotFoundException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.DEFLATE, new MarkingPackageSerializer()).writeKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readKnowledgePackages();
+  }
+
+  @Test
+  public void testReadsSelectedPackagesOnly() throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Collection<KnowledgePackage> actualKnowledgePackages = reader.readKnowledgePackages(singleton("org.example.other"));
+
+    assertThat(actualKnowledgePackages).hasSize(1);
+    final KnowledgePackage knowledgePackage = actualKnowledgePackages.iterator().next();
+    assertThat(knowledgePackage.getName()).isEqualTo("org.example.other");
+    assertThat(knowledgePackage.getRules()).hasSize(2);
+  }
+
+  @Test
+  public void testReadsSelectedPackagesFromMonolithicModule() throws IOException, ClassNotFoundException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(outputStream, knowledgeBuilder.getKnowledgePackages(), true);
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_1, DROOLS_5_2_0_FINAL, outputStream.toByteArray());
+
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input));
+    assertThat(reader.readKnowledgePackages(singleton("org.example.unknown"))).isEmpty();
+  }
+
+  @Test
+  public void testIteratesPackagesOneAtATime() throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Iterator<KnowledgePackage> iterator = reader.iterateKnowledgePackages();
+
+    assertThat(iterator.hasNext()).isTrue();
+    assertThat(iterator.next().getName()).isEqualTo("org.example");
+    assertThat(iterator.hasNext()).isTrue();
+    assertThat(iterator.next().getName()).isEqualTo("org.example.other");
+    assertThat(iterator.hasNext()).isFalse();
+  }
+
+  @Test(expectedExceptions = KnowledgeModuleReadException.class)
+  public void testIteratorReportsTruncatedModule() throws IOException, ClassNotFoundException {
+    final byte[] module = writeModuleWithTwoPackages();
+    final byte[] truncatedModule = ArrayUtils.slice(module, 0, module.length / 2);
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(truncatedModule));
+    final Iterator<KnowledgePackage> iterator = reader.iterateKnowledgePackages();
+    while (iterator.hasNext()) {
+      iterator.next();
+    }
+  }
+
+  @Test
+  public void testDeserializesPackagesConcurrentlyInModuleOrder() throws IOException, ClassNotFoundException {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()), getClass().getClassLoader(), executor);
+      final Iterator<KnowledgePackage> knowledgePackages = reader.readKnowledgePackages().iterator();
+
+      assertThat(knowledgePackages.next().getName()).isEqualTo("org.example");
+      assertThat(knowledgePackages.next().getName()).isEqualTo("org.example.other");
+      assertThat(knowledgePackages.hasNext()).isFalse();
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expectedExceptions = EOFException.class)
+  public void testConcurrentReadReportsTruncatedModule() throws IOException, ClassNotFoundException {
+    final byte[] module = writeModuleWithTwoPackages();
+    final byte[] truncatedModule = ArrayUtils.slice(module, 0, module.length / 2);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new KnowledgeModuleReaderImpl(new ByteArrayInputStream(truncatedModule), getClass().getClassLoader(), executor).readKnowledgePackages();
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testReadsPackagesAsynchronously() throws Exception {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Future<Collection<KnowledgePackage>> knowledgePackages = reader.readKnowledgePackagesAsync(null);
+
+    assertThat(knowledgePackages.get(10, TimeUnit.SECONDS)).hasSize(2);
+  }
+
+  @Test(expectedExceptions = InvalidFileMagicException.class)
+  public void testAsynchronousReadReportsFailureOnGet() throws Throwable {
+    final byte[] module = writeModuleWithTwoPackages();
+    module[0]++;
+    final Future<Collection<KnowledgePackage>> knowledgePackages = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(module)).readKnowledgePackagesAsync(null);
+    try {
+      knowledgePackages.get(10, TimeUnit.SECONDS);
+    }
+    catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void testCancelledReadStopsBeforeNextPackage() throws IOException {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    final Executor executor = new Executor() {
+      public void execute(Runnable command) {
+        tasks.add(command);
+      }
+    };
+    final List<Future<Collection<KnowledgePackage>>> reads = new ArrayList<Future<Collection<KnowledgePackage>>>();
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener() {
+      @Override
+      public void phaseCompleted(KnowledgeIoEvent event) {
+        super.phaseCompleted(event);
+        if (event.getPhase() == KnowledgeIoPhase.DESERIALIZE) {
+          reads.get(0).cancel(false);
+        }
+      }
+    };
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    reads.add(reader.readKnowledgePackagesAsync(executor));
+
+    tasks.get(0).run();
+
+    assertThat(reads.get(0).isCancelled()).isTrue();
+    assertThat(listener.getEvents(KnowledgeIoPhase.DESERIALIZE)).hasSize(1);
+  }
+
+  @Test
+  public void testReadsSelectedPackagesFromMappedFile() throws IOException, ClassNotFoundException {
+    final File moduleFile = writeModuleFile(writeModuleWithTwoPackages());
+    try {
+      KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null);
+      final Collection<KnowledgePackage> actualKnowledgePackages = reader.readKnowledgePackages(singleton("org.example.other"));
+
+      assertThat(actualKnowledgePackages).hasSize(1);
+      assertThat(actualKnowledgePackages.iterator().next().getRules()).hasSize(2);
+    }
+    finally {
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testDeserializesPackagesFromMappedFileConcurrently() throws IOException, ClassNotFoundException {
+    final File moduleFile = writeModuleFile(writeModuleWithTwoPackages());
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), executor);
+      assertThat(reader.readKnowledgePackages()).hasSize(2);
+    }
+    finally {
+      executor.shutdown();
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testReadsManifestWithoutDeserializingPackages() throws IOException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final KnowledgeModuleManifest manifest = reader.readManifest();
+
+    assertThat(manifest.getFileFormatVersion()).isEqualTo(ByteBuffer.wrap(KnowledgeModule.CURRENT_FILE_FORMAT).getLong());
+    assertThat(manifest.getDroolsRuntimeVersion()).isEqualTo(KnowledgePackageImp.class.getPackage().getImplementationVersion());
+    assertThat(manifest.getPackageNames()).containsExactly("org.example", "org.example.other");
+    assertThat(manifest.getRuleCount()).isEqualTo(5);
+    assertThat(manifest.getTypeDeclarationCount()).isEqualTo(0);
+    assertThat(manifest.getKnowledgePackages().get(1).getRuleCount()).isEqualTo(2);
+    assertThat(manifest.getKnowledgePackages().get(1).getSectionSize()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testReadsManifestOfModuleForOtherDroolsRuntime() throws IOException {
+    /* section count 0, offset of section index (not evaluated by readers walking the sections) */
+    final byte[] emptyIndexAndTrailer = ArrayUtils.bytes(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x20);
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_4, DROOLS_5_1_1, ArrayUtils.bytes(CompressionCodecs.DEFLATE_ID, KnowledgeModule.SECTION_END), emptyIndexAndTrailer);
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readManifest();
+
+    assertThat(manifest.getDroolsRuntimeVersion()).isEqualTo("5.1.1");
+    assertThat(manifest.getKnowledgePackages()).isEmpty();
+  }
+
+  @Test(expectedExceptions = IllegalFileFormatException.class)
+  public void testRejectsSectionCountExceedingIndex() throws IOException {
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithSectionCount(Integer.MAX_VALUE))).readManifest();
+  }
+
+  @Test
+  public void testRejectsSectionCountExceedingIndexOfMappedFile() throws IOException, ClassNotFoundException {
+    final File moduleFile = writeModuleFile(writeModuleWithSectionCount(Integer.MAX_VALUE));
+    try {
+      // the rule filter makes the reader consult the section index of mapped files
+      new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null).readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, new RuleNameFilter("rule 1"));
+      fail("Expected IllegalFileFormatException");
+    }
+    catch (IllegalFileFormatException e) {
+      assertThat(e.getMessage()).contains("section count");
+    }
+    finally {
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testReportsReadPhasesToListeners() throws IOException, ClassNotFoundException {
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    reader.readKnowledgePackages();
+
+    assertThat(listener.getPhases().get(0)).isEqualTo(KnowledgeIoPhase.READ_HEADER);
+    assertThat(listener.getEvents(KnowledgeIoPhase.READ_SECTION)).hasSize(2);
+    assertThat(listener.getEvents(KnowledgeIoPhase.INFLATE)).hasSize(2);
+    assertThat(listener.getEvents(KnowledgeIoPhase.DESERIALIZE)).hasSize(2);
+    assertThat(listener.getEvents(KnowledgeIoPhase.VALIDATE)).hasSize(2);
+    final KnowledgeIoEvent inflation = listener.getEvents(KnowledgeIoPhase.INFLATE).get(1);
+    assertThat(inflation.getPackageName()).isEqualTo("org.example.other");
+    assertThat(inflation.getUncompressedBytes()).isGreaterThan(inflation.getCompressedBytes());
+
+    final KnowledgeIoEvent moduleEvent = listener.getLastEvent();
+    assertThat(moduleEvent.getPhase()).isEqualTo(KnowledgeIoPhase.READ_MODULE);
+    assertThat(moduleEvent.getPackageCount()).isEqualTo(2);
+    assertThat(moduleEvent.getCompressedBytes()).isGreaterThan(0);
+    assertThat(moduleEvent.getUncompressedBytes()).isGreaterThan(moduleEvent.getCompressedBytes());
+    assertThat(moduleEvent.getDurationNanos()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testRestoresKnowledgeBaseFromSnapshot() throws IOException, ClassNotFoundException {
+    final KnowledgeBase writtenKnowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    writtenKnowledgeBase.addKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgeBase(writtenKnowledgeBase);
+
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray()));
+    reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    final KnowledgeBase knowledgeBase = reader.readKnowledgeBase();
+
+    assertThat(knowledgeBase.getKnowledgePackages()).hasSize(2);
+    assertThat(knowledgeBase.newStatefulKnowledgeSession().fireAllRules()).isEqualTo(5);
+    assertThat(listener.getEvents(KnowledgeIoPhase.BUILD_KNOWLEDGE_BASE)).isEmpty();
+  }
+
+  @Test
+  public void testBuildsKnowledgeBaseFromModuleWithoutSnapshot() throws IOException, ClassNotFoundException {
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    final KnowledgeBase knowledgeBase = reader.readKnowledgeBase();
+
+    assertThat(knowledgeBase.getKnowledgePackages()).hasSize(2);
+    assertThat(knowledgeBase.newStatefulKnowledgeSession().fireAllRules()).isEqualTo(5);
+    assertThat(listener.getLastEvent().getPhase()).isEqualTo(KnowledgeIoPhase.BUILD_KNOWLEDGE_BASE);
+  }
+
+  @Test
+  public void testSkipsSnapshotWhenReadingPackages() throws IOException, ClassNotFoundException {
+    final KnowledgeBase writtenKnowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    writtenKnowledgeBase.addKnowledgePackages(compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgeBase(writtenKnowledgeBase);
+
+    final Collection<KnowledgePackage> knowledgePackages = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readKnowledgePackages();
+    assertThat(knowledgePackages).hasSize(2);
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readManifest();
+    assertThat(manifest.getRuleCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void testReadsOnlyRulesAcceptedByFilter() throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Collection<KnowledgePackage> knowledgePackages = reader.readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, new RuleNameFilter("one", "four"));
+
+    assertThat(knowledgePackages).hasSize(2);
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      assertThat(knowledgePackage.getRules()).hasSize(1);
+    }
+    final KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(knowledgePackages);
+    assertThat(knowledgeBase.newStatefulKnowledgeSession().fireAllRules()).isEqualTo(2);
+  }
+
+  @Test
+  public void testDropsPackagesWithoutAcceptedRules() throws IOException, ClassNotFoundException {
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages()));
+    final Collection<KnowledgePackage> knowledgePackages = reader.readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, new RuleNameFilter("one"));
+
+    assertThat(knowledgePackages).hasSize(1);
+    assertThat(knowledgePackages.iterator().next().getName()).isEqualTo("org.example");
+  }
+
+  @Test
+  public void testRemovesGeneratedClassesOfRejectedRules() throws IOException, ClassNotFoundException {
+    final String conditionalRules = "package org.example.conditional;\n" +
+                                    "rule \"keep\"\n" +
+                                    "  when\n" +
+                                    "    eval(true)\n" +
+                                    "  then\n" +
+                                    "end\n" +
+                                    "rule \"drop\"\n" +
+                                    "  when\n" +
+                                    "    eval(1 < 2)\n" +
+                                    "  then\n" +
+                                    "end\n";
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(compile(conditionalRules));
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray()));
+    final Collection<KnowledgePackage> knowledgePackages = reader.readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, new RuleNameFilter("keep"));
+
+    final KnowledgePackageImp knowledgePackage = (KnowledgePackageImp) knowledgePackages.iterator().next();
+    final JavaDialectRuntimeData dialectData = (JavaDialectRuntimeData) knowledgePackage.pkg.getDialectRuntimeRegistry().getDialectData("java");
+    final String[] classNames = dialectData.list();
+    assertThat(classNames).contains("org/example/conditional/Rule_keep_0.class", "org/example/conditional/Rule_keep_0Eval0Invoker.class");
+    for (String className : classNames) {
+      assertThat(className).doesNotContain("Rule_drop");
+    }
+    for (Object invokerClassName : dialectData.getInvokers().keySet()) {
+      assertThat((String) invokerClassName).doesNotContain("Rule_drop");
+    }
+  }
+
+  @Test
+  public void testSkipsSectionsWithoutAcceptedRulesInMappedFile() throws IOException, ClassNotFoundException {
+    final File moduleFile = writeModuleFile(writeModuleWithTwoPackages());
+    try {
+      final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+      KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(moduleFile, getClass().getClassLoader(), null);
+      reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+      final Collection<KnowledgePackage> knowledgePackages = reader.readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, new RuleNameFilter("four"));
+
+      assertThat(knowledgePackages).hasSize(1);
+      assertThat(knowledgePackages.iterator().next().getRules()).hasSize(1);
+      assertThat(listener.getEvents(KnowledgeIoPhase.READ_SECTION)).hasSize(1);
+      assertThat(listener.getEvents(KnowledgeIoPhase.READ_SECTION).get(0).getPackageName()).isEqualTo("org.example.other");
+    }
+    finally {
+      moduleFile.delete();
+    }
+  }
+
+  @Test
+  public void testReadsRulesIntoManifest() throws IOException {
+    final String regionalRules = "package org.example.regional;\n" +
+                                 "rule \"emea only\"\n" +
+                                 "  @region(emea)\n" +
+                                 "  agenda-group \"regional\"\n" +
+                                 "  when\n" +
+                                 "  then\n" +
+                                 "end\n";
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(compile(regionalRules));
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readManifest();
+
+    final List<KnowledgeRuleManifest> rules = manifest.getKnowledgePackages().get(0).getRules();
+    assertThat(rules).hasSize(1);
+    assertThat(rules.get(0).getPackageName()).isEqualTo("org.example.regional");
+    assertThat(rules.get(0).getName()).isEqualTo("emea only");
+    assertThat(rules.get(0).getAgendaGroup()).isEqualTo("regional");
+    assertThat(rules.get(0).getMetaAttribute("region")).isEqualTo("emea");
+  }
+
+  @Test
+  public void testRecordsMetaAttributesWithoutValueAsEmpty() throws IOException {
+    final String flaggedRules = "package org.example.flagged;\n" +
+                                "rule \"flagged\"\n" +
+                                "  @preview\n" +
+                                "  when\n" +
+                                "  then\n" +
+                                "end\n";
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(compile(flaggedRules));
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readManifest();
+
+    final KnowledgeRuleManifest rule = manifest.getKnowledgePackages().get(0).getRules().get(0);
+    assertThat(rule.getMetaAttributes().containsKey("preview")).isTrue();
+    assertThat(rule.getMetaAttribute("preview")).isEqualTo("");
+  }
+
+  @Test
+  public void testReportsReadPhasesOfMonolithicModule() throws IOException, ClassNotFoundException {
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(content, knowledgeBuilder.getKnowledgePackages(), true);
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_1, DROOLS_5_2_0_FINAL, content.toByteArray());
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input));
+    reader.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    reader.readKnowledgePackages();
+
+    assertThat(listener.getPhases()).containsExactly(KnowledgeIoPhase.READ_HEADER, KnowledgeIoPhase.DESERIALIZE, KnowledgeIoPhase.VALIDATE, KnowledgeIoPhase.READ_MODULE);
+    assertThat(listener.getEvents(KnowledgeIoPhase.DESERIALIZE).get(0).getCompressedBytes()).isEqualTo(content.size());
+  }
+
+  @Test(expectedExceptions = IllegalFileFormatException.class)
+  public void testRejectsOtherObjectsInMonolithicModule() throws IOException, ClassNotFoundException {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(content, Arrays.asList("not a knowledge package"), true);
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_1, DROOLS_5_2_0_FINAL, content.toByteArray());
+
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readKnowledgePackages();
+  }
+
+  @Test
+  public void testSkipsObjectChecksWithoutValidation() throws IOException, ClassNotFoundException {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(content, Arrays.asList("not a knowledge package"), true);
+    final byte[] input = ArrayUtils.concat(VALID_MAGIC, VALID_FILE_FORMAT_1, DROOLS_5_2_0_FINAL, content.toByteArray());
+
+    KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input));
+    assertThat(reader.readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, ValidationLevel.NONE)).hasSize(1);
+  }
+
+  @Test(expectedExceptions = IllegalFileFormatException.class)
+  public void testRejectsOtherObjectsInSection() throws IOException, ClassNotFoundException {
+    final byte[] input = writeModuleWithSection("org.example", "not a knowledge package");
+
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readKnowledgePackages();
+  }
+
+  @Test(expectedExceptions = ChecksumMismatchException.class)
+  public void testRejectsSectionNotMatchingItsChecksum() throws IOException, ClassNotFoundException {
+    final byte[] input = writeModuleWithSection("org.example", "not a knowledge package");
+    // last byte of section data, just before the end-of-sections marker
+    input[input.length - 2] ^= 0xFF;
+
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readKnowledgePackages();
+  }
+
+  @Test
+  public void testFullValidationRejectsPackageInSectionOfOtherName() throws IOException, ClassNotFoundException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    final byte[] input = writeModuleWithSection("org.example.other", knowledgeBuilder.getKnowledgePackages().iterator().next());
+
+    assertThat(new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readKnowledgePackages()).hasSize(1);
+    try {
+      new KnowledgeModuleReaderImpl(new ByteArrayInputStream(input)).readKnowledgePackages(VersionCheckStrategy.VERSIONS_MUST_MATCH, ValidationLevel.FULL);
+      fail("Expected IllegalFileFormatException");
+    }
+    catch (IllegalFileFormatException e) {
+      assertThat(e.getMessage()).contains("org.example.other");
+    }
+  }
+
+  @Test
+  public void testAppliesDeltaComputedAgainstBaseModule() throws IOException, ClassNotFoundException {
+    final File baseModule = writeModuleFile(writeModuleWithTwoPackages());
+    try {
+      final Collection<KnowledgePackage> basePackages = new KnowledgeModuleReaderImpl(baseModule, getClass().getClassLoader(), null).readKnowledgePackages();
+      final ByteArrayOutputStream deltaOutput = new ByteArrayOutputStream();
+      new KnowledgeModuleWriterImpl(deltaOutput).writeDelta(baseModule, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.CHANGED_OTHER_RULES));
+      final byte[] delta = deltaOutput.toByteArray();
+
+      final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(delta)).readManifest();
+      assertThat(manifest.isDelta()).isTrue();
+      assertThat(manifest.getBaseModuleDigest()).isEqualTo(ModuleDigests.digest(baseModule));
+      assertThat(manifest.getPackageNames()).containsExactly("org.example.other");
+      assertThat(manifest.getRemovedPackageNames()).isEmpty();
+
+      final KnowledgeModuleReaderImpl deltaReader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(delta));
+      final Collection<KnowledgePackage> knowledgePackages = deltaReader.applyDelta(ModuleDigests.digest(baseModule), basePackages);
+      final Iterator<KnowledgePackage> iterator = knowledgePackages.iterator();
+      assertThat(iterator.next()).isSameAs(basePackages.iterator().next());
+      final KnowledgePackage changedPackage = iterator.next();
+      assertThat(changedPackage.getName()).isEqualTo("org.example.other");
+      assertThat(changedPackage.getRules()).hasSize(1);
+      assertThat(iterator.hasNext()).isFalse();
+    }
+    finally {
+      baseModule.delete();
+    }
+  }
+
+  @Test
+  public void testComputesDeltaAgainstBaseModuleOfRegisteredSerializer() throws IOException {
+    final MarkingPackageSerializer packageSerializer = new MarkingPackageSerializer();
+    final ByteArrayOutputStream baseOutput = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(baseOutput, CompressionCodecs.DEFLATE, packageSerializer).writeKnowledgePackages(
+        compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    final File baseModule = writeModuleFile(baseOutput.toByteArray());
+    try {
+      final ByteArrayOutputStream deltaOutput = new ByteArrayOutputStream();
+      final KnowledgeModuleWriterImpl deltaWriter = new KnowledgeModuleWriterImpl(deltaOutput);
+      final PackageSerializerRegistry packageSerializers = new PackageSerializerRegistry();
+      packageSerializers.register(packageSerializer);
+      deltaWriter.setPackageSerializers(packageSerializers);
+      deltaWriter.writeDelta(baseModule, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.CHANGED_OTHER_RULES));
+
+      final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(deltaOutput.toByteArray())).readManifest();
+      assertThat(manifest.getPackageNames()).containsExactly("org.example.other");
+    }
+    finally {
+      baseModule.delete();
+    }
+  }
+
+  @Test
+  public void testAppliesDeltaRemovingPackages() throws IOException, ClassNotFoundException {
+    final byte[] baseModule = writeModuleWithTwoPackages();
+    final Collection<KnowledgePackage> basePackages = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(baseModule)).readKnowledgePackages();
+    final ByteArrayOutputStream deltaOutput = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(deltaOutput).writeDelta(ModuleDigests.digest(new ByteArrayInputStream(baseModule)), compile(), singleton("org.example"));
+
+    final KnowledgeModuleReaderImpl deltaReader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(deltaOutput.toByteArray()));
+    final Collection<KnowledgePackage> knowledgePackages = deltaReader.applyDelta(null, basePackages);
+    assertThat(knowledgePackages).hasSize(1);
+    assertThat(knowledgePackages.iterator().next().getName()).isEqualTo("org.example.other");
+  }
+
+  @Test(expectedExceptions = InvalidBaseModuleException.class)
+  public void testRejectsDeltaForOtherBaseModule() throws IOException, ClassNotFoundException {
+    final ByteArrayOutputStream deltaOutput = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(deltaOutput).writeDelta(new byte[] {1, 2, 3}, compile(ExampleDroolsCode.CHANGED_OTHER_RULES), singleton("org.example"));
+
+    final KnowledgeModuleReaderImpl deltaReader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(deltaOutput.toByteArray()));
+    deltaReader.applyDelta(new byte[] {1, 2, 4}, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+  }
+
+  @Test(expectedExceptions = InvalidFileHeaderException.class)
+  public void testRejectsApplyingFullModuleAsDelta() throws IOException, ClassNotFoundException {
+    new KnowledgeModuleReaderImpl(new ByteArrayInputStream(writeModuleWithTwoPackages())).applyDelta(null, compile());
+  }
+
+  private static class RuleNameFilter implements RuleFilter {
+
+    private final List<String> ruleNames;
+
+    private RuleNameFilter(String... ruleNames) {
+      this.ruleNames = Arrays.asList(ruleNames);
+    }
+
+    public boolean accept(KnowledgeRuleManifest rule) {
+      return ruleNames.contains(rule.getName());
+    }
+  }
+
+  /**
+   * Java serialization preceded by a marker byte, to tell its sections from those of {@link PackageSerializers#JAVA}.
+   */
+  private static class MarkingPackageSerializer implements PackageSerializer {
+
+    private static final byte ID = 100;
+
+    public byte getId() {
+      return ID;
+    }
+
+    public void serialize(KnowledgePackage knowledgePackage, OutputStream outputStream) throws IOException {
+      outputStream.write(ID);
+      PackageSerializers.JAVA.serialize(knowledgePackage, outputStream);
+    }
+
+    public Object deserialize(InputStream inputStream, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+      assertThat(inputStream.read()).as("marker byte").isEqualTo(ID);
+      return PackageSerializers.JAVA.deserialize(inputStream, classLoader);
+    }
+  }
+
+  private Collection<KnowledgePackage> compile(String... drls) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    for (String drl : drls) {
+      knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    }
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+
+  /**
+   * @return module of the current file format holding one uncompressed section, without section index.
+   */
+  private byte[] writeModuleWithSection(String packageName, Object sectionContent) throws IOException {
+    final ByteArrayOutputStream sectionData = new ByteArrayOutputStream();
+    DroolsStreamUtils.streamOut(sectionData, sectionContent, false);
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final DataOutputStream dataOutput = new DataOutputStream(outputStream);
+    KnowledgeModuleWriterImpl.writeHeader(dataOutput, "5.2.0.Final", CompressionCodecs.NONE_ID, KnowledgeModule.MODULE_KIND_FULL, null, PackageSerializers.JAVA_ID,
+                                          KnowledgeModule.SNAPSHOT_NONE);
+    KnowledgeModuleWriterImpl.writeSectionFrame(dataOutput, packageName, sectionData.size(), ModuleChecksums.checksum(sectionData.toByteArray()));
+    sectionData.writeTo(dataOutput);
+    dataOutput.writeByte(KnowledgeModule.SECTION_END);
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * @return module of the current file format without sections, whose section index holds only <code>sectionCount</code>.
+   */
+  private byte[] writeModuleWithSectionCount(int sectionCount) throws IOException {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final DataOutputStream dataOutput = new DataOutputStream(outputStream);
+    KnowledgeModuleWriterImpl.writeHeader(dataOutput, "5.2.0.Final", CompressionCodecs.NONE_ID, KnowledgeModule.MODULE_KIND_FULL, null, PackageSerializers.JAVA_ID,
+                                          KnowledgeModule.SNAPSHOT_NONE);
+    dataOutput.writeByte(KnowledgeModule.SECTION_END);
+    final int indexOffset = dataOutput.size();
+    dataOutput.writeInt(sectionCount);
+    dataOutput.writeLong(indexOffset);
+    return outputStream.toByteArray();
+  }
+
+  private File writeModuleFile(byte[] module) throws IOException {
+    final File moduleFile = File.createTempFile("knowledge-module", ".dkm");
+    final FileOutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      outputStream.write(module);
+    }
+    finally {
+      outputStream.close();
+    }
+    return moduleFile;
+  }
+
+  private byte[] writeModuleWithTwoPackages() throws IOException {
+    return writeModuleWithTwoPackages(CompressionCodecs.DEFLATE);
+  }
+
+  private byte[] writeModuleWithTwoPackages(CompressionCodec compressionCodec) throws IOException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.TWO_MORE_RULES.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    new KnowledgeModuleWriterImpl(outputStream, compressionCodec).writeKnowledgePackages(knowledgeBuilder.getKnowledgePackages());
+    return outputStream.toByteArray();
+  }
 }
@@ -25,6 +25,8 @@ public class KnowledgeModuleReaderImplTestData {
   public static final byte[] FILE_FORMAT_TOO_SHORT_6 = ArrayUtils.bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x01);
   public static final byte[] VALID_FILE_FORMAT_1 = ArrayUtils.bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01);
   public static final byte[] VALID_FILE_FORMAT_2 = ArrayUtils.bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02);
+  public static final byte[] VALID_FILE_FORMAT_3 = ArrayUtils.bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03);
+  public static final byte[] VALID_FILE_FORMAT_4 = ArrayUtils.bytes(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x04);
   public static final byte[] DUMMY_DROOLS_VERSION = ArrayUtils.bytes(0x00, 0x01, 'X');
   public static final byte[] DROOLS_5_1_1 = ArrayUtils.bytes(0, 5, '5', '.', '1', '.', '1');
   public static final byte[] DROOLS_5_2_0_FINAL = ArrayUtils.bytes(0, 11, '5', '.', '2', '.', '0', '.', 'F', 'i', 'n', 'a', 'l');
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.ChecksumMismatchException;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoListener;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleManifest;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+@Test
+public class KnowledgeModuleToolsImplTest {
+
+  private KnowledgeModuleToolsImpl tools;
+  private File firstModuleFile;
+  private File secondModuleFile;
+  private File targetFile;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    tools = new KnowledgeModuleToolsImpl();
+    firstModuleFile = File.createTempFile("knowledge-module", ".dkm");
+    secondModuleFile = File.createTempFile("knowledge-module", ".dkm");
+    targetFile = File.createTempFile("knowledge-module", ".dkm");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    firstModuleFile.delete();
+    secondModuleFile.delete();
+    targetFile.delete();
+  }
+
+  @Test
+  public void testMergesPackagesOfAllModules() throws IOException, ClassNotFoundException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    writeModuleFile(secondModuleFile, compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    tools.merge(Arrays.asList(firstModuleFile, secondModuleFile), targetFile);
+
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(targetFile, getClass().getClassLoader(), null).readManifest();
+    assertThat(manifest.getPackageNames()).containsExactly("org.example", "org.example.other");
+    assertThat(manifest.getRuleCount()).isEqualTo(5);
+    final Collection<KnowledgePackage> knowledgePackages = new KnowledgeModuleReaderImpl(targetFile, getClass().getClassLoader(), null).readKnowledgePackages();
+    assertThat(knowledgePackages).hasSize(2);
+  }
+
+  @Test
+  public void testCopiesSectionDataUnchanged() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    writeModuleFile(secondModuleFile, compile(ExampleDroolsCode.TWO_MORE_RULES));
+
+    tools.merge(Arrays.asList(firstModuleFile, secondModuleFile), targetFile);
+
+    assertThat(readSectionData(targetFile, 1)).isEqualTo(readSectionData(secondModuleFile, 0));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsMergingModulesWithSamePackage() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.TWO_MORE_RULES));
+    writeModuleFile(secondModuleFile, compile(ExampleDroolsCode.CHANGED_OTHER_RULES));
+
+    tools.merge(Arrays.asList(firstModuleFile, secondModuleFile), targetFile);
+  }
+
+  @Test
+  public void testRejectsModuleTruncatedUnderSection() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    final IndexedModuleFile indexedModuleFile = IndexedModuleFile.open(firstModuleFile, "r", null);
+    final DroolsKnowledgeModuleSection secondSection = indexedModuleFile.getSections().get(1);
+    indexedModuleFile.close();
+    // truncates the module once its index has been read and the first section copied
+    tools.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(new KnowledgeIoListener() {
+      public void phaseCompleted(KnowledgeIoEvent event) {
+        if (event.getPhase() == KnowledgeIoPhase.WRITE_SECTION) {
+          truncate(firstModuleFile, secondSection.offset + secondSection.length / 2);
+        }
+      }
+    }));
+
+    try {
+      tools.split(firstModuleFile, Collections.singletonMap(targetFile, (Set<String>) new HashSet<String>(Arrays.asList("org.example", "org.example.other"))));
+      fail("Exception expected");
+    }
+    catch (EOFException e) {
+      assertThat(e.getMessage()).contains(secondSection.packageName);
+    }
+  }
+
+  @Test
+  public void testSplitsPackagesIntoTargetFiles() throws IOException, ClassNotFoundException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    Map<File, Set<String>> packageNamesByTargetFile = new LinkedHashMap<File, Set<String>>();
+    packageNamesByTargetFile.put(secondModuleFile, Collections.singleton("org.example.other"));
+    packageNamesByTargetFile.put(targetFile, new HashSet<String>(Arrays.asList("org.example.other", "org.example")));
+
+    tools.split(firstModuleFile, packageNamesByTargetFile);
+
+    final Collection<KnowledgePackage> knowledgePackages = new KnowledgeModuleReaderImpl(secondModuleFile, getClass().getClassLoader(), null).readKnowledgePackages();
+    assertThat(knowledgePackages).hasSize(1);
+    assertThat(knowledgePackages.iterator().next().getName()).isEqualTo("org.example.other");
+    final KnowledgeModuleManifest manifest = new KnowledgeModuleReaderImpl(targetFile, getClass().getClassLoader(), null).readManifest();
+    assertThat(manifest.getPackageNames()).containsExactly("org.example", "org.example.other");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testRejectsSplittingUnknownPackage() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    tools.split(firstModuleFile, Collections.singletonMap(targetFile, Collections.singleton("org.example.missing")));
+  }
+
+  @Test
+  public void testVerifiesIntactModule() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+
+    tools.verify(firstModuleFile);
+  }
+
+  @Test(expectedExceptions = ChecksumMismatchException.class)
+  public void testVerifyDetectsCorruptedSectionData() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES, ExampleDroolsCode.TWO_MORE_RULES));
+    final IndexedModuleFile indexedModuleFile = IndexedModuleFile.open(firstModuleFile, "r", null);
+    final DroolsKnowledgeModuleSection section = indexedModuleFile.getSections().get(1);
+    indexedModuleFile.close();
+    flipByte(firstModuleFile, section.offset + section.length / 2);
+
+    tools.verify(firstModuleFile);
+  }
+
+  @Test
+  public void testVerifiesIntactModuleWithKnowledgeBaseSnapshot() throws IOException {
+    writeKnowledgeBaseModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+
+    tools.verify(firstModuleFile);
+  }
+
+  @Test(expectedExceptions = ChecksumMismatchException.class)
+  public void testVerifyDetectsCorruptedKnowledgeBaseSnapshot() throws IOException {
+    writeKnowledgeBaseModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    final IndexedModuleFile indexedModuleFile = IndexedModuleFile.open(firstModuleFile, "r", null);
+    final DroolsKnowledgeModuleSection knowledgeBaseSection = indexedModuleFile.readKnowledgeBaseSection();
+    indexedModuleFile.close();
+    flipByte(firstModuleFile, knowledgeBaseSection.offset + knowledgeBaseSection.length / 2);
+
+    tools.verify(firstModuleFile);
+  }
+
+  @Test(expectedExceptions = ChecksumMismatchException.class)
+  public void testVerifyDetectsCorruptedHeader() throws IOException {
+    writeModuleFile(firstModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    // last byte of the Drools runtime version
+    flipByte(firstModuleFile, KnowledgeModule.FILE_MAGIC.length + KnowledgeModule.CURRENT_FILE_FORMAT.length + 1
+                              + KnowledgePackage.class.getPackage().getImplementationVersion().length());
+
+    tools.verify(firstModuleFile);
+  }
+
+  private void flipByte(File moduleFile, long position) throws IOException {
+    final RandomAccessFile file = new RandomAccessFile(moduleFile, "rw");
+    try {
+      file.seek(position);
+      final int original = file.read();
+      file.seek(position);
+      file.write(original ^ 0xFF);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private void truncate(File moduleFile, long length) {
+    try {
+      final RandomAccessFile file = new RandomAccessFile(moduleFile, "rw");
+      try {
+        file.setLength(length);
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void writeModuleFile(File moduleFile, Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    final OutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  private void writeKnowledgeBaseModuleFile(File moduleFile, Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    final KnowledgeBase knowledgeBase = KnowledgeBaseFactory.newKnowledgeBase();
+    knowledgeBase.addKnowledgePackages(knowledgePackages);
+    final OutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      new KnowledgeModuleWriterImpl(outputStream).writeKnowledgeBase(knowledgeBase);
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  private byte[] readSectionData(File moduleFile, int sectionNumber) throws IOException {
+    final IndexedModuleFile indexedModuleFile = IndexedModuleFile.open(moduleFile, "r", null);
+    try {
+      final List<DroolsKnowledgeModuleSection> sections = indexedModuleFile.getSections();
+      final DroolsKnowledgeModuleSection section = sections.get(sectionNumber);
+      final ByteBuffer sectionData = ByteBuffer.allocate((int) section.length);
+      indexedModuleFile.getChannel().read(sectionData, section.offset);
+      return sectionData.array();
+    }
+    finally {
+      indexedModuleFile.close();
+    }
+  }
+
+  private Collection<KnowledgePackage> compile(String... drls) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    for (String drl : drls) {
+      knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    }
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+}
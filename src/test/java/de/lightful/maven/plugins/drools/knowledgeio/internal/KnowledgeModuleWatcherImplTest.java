@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoFactory;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeModuleSubscriber;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.definition.KnowledgePackage;
+import org.drools.io.ResourceFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+@Test
+public class KnowledgeModuleWatcherImplTest {
+
+  private File moduleFile;
+  private KnowledgeModuleWatcherImpl watcher;
+  private RecordingSubscriber subscriber;
+
+  @BeforeMethod
+  public void setUp() throws IOException, ClassNotFoundException {
+    moduleFile = File.createTempFile("knowledge-module", ".dkm");
+    writeModuleFile(compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+    watcher = new KnowledgeModuleWatcherImpl(new KnowledgeIoFactory(), getClass().getClassLoader(), 1000);
+    subscriber = new RecordingSubscriber();
+    watcher.addSubscriber(subscriber);
+    watcher.watch(moduleFile);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    watcher.stop();
+    moduleFile.delete();
+  }
+
+  @Test
+  public void testLoadsPackagesWhenWatchingModule() {
+    assertThat(watcher.getKnowledgePackages().keySet()).containsOnly(moduleFile);
+    assertThat(packageNames(watcher.getKnowledgePackages().get(moduleFile))).containsExactly("org.example");
+  }
+
+  @Test
+  public void testReloadsChangedModuleOnceItStaysUnchanged() throws IOException {
+    final Map<File, Collection<KnowledgePackage>> originalSnapshot = watcher.getKnowledgePackages();
+    writeModuleFile(compile(ExampleDroolsCode.TWO_MORE_RULES));
+    markModified();
+
+    watcher.poll();
+    assertThat(watcher.getKnowledgePackages()).isSameAs(originalSnapshot);
+
+    watcher.poll();
+    assertThat(packageNames(watcher.getKnowledgePackages().get(moduleFile))).containsExactly("org.example.other");
+    assertThat(subscriber.changedModules).containsExactly(moduleFile);
+    assertThat(originalSnapshot.get(moduleFile)).as("previous snapshot").hasSize(1);
+  }
+
+  @Test
+  public void testIgnoresTouchedModuleWithUnchangedContent() {
+    final Map<File, Collection<KnowledgePackage>> originalSnapshot = watcher.getKnowledgePackages();
+    markModified();
+
+    watcher.poll();
+    watcher.poll();
+
+    assertThat(watcher.getKnowledgePackages()).isSameAs(originalSnapshot);
+    assertThat(subscriber.changedModules).isEmpty();
+  }
+
+  @Test
+  public void testKeepsPackagesIfReloadFails() throws IOException {
+    final Map<File, Collection<KnowledgePackage>> originalSnapshot = watcher.getKnowledgePackages();
+    final OutputStream outputStream = new FileOutputStream(moduleFile);
+    try {
+      outputStream.write(new byte[] {1, 2, 3});
+    }
+    finally {
+      outputStream.close();
+    }
+    markModified();
+
+    watcher.poll();
+    watcher.poll();
+
+    assertThat(watcher.getKnowledgePackages()).isSameAs(originalSnapshot);
+    assertThat(subscriber.failedModules).containsExactly(moduleFile);
+  }
+
+  @Test
+  public void testKeepsNotifyingSubscribersAfterOneFails() throws IOException {
+    watcher.removeSubscriber(subscriber);
+    watcher.addSubscriber(new KnowledgeModuleSubscriber() {
+      public void knowledgePackagesChanged(File moduleFile, Map<File, Collection<KnowledgePackage>> knowledgePackages) {
+        throw new IllegalStateException("subscriber failure");
+      }
+
+      public void reloadFailed(File moduleFile, Exception cause) {
+        throw new IllegalStateException("subscriber failure");
+      }
+    });
+    watcher.addSubscriber(subscriber);
+    writeModuleFile(compile(ExampleDroolsCode.TWO_MORE_RULES));
+    markModified();
+    final List<Throwable> uncaughtExceptions = new ArrayList<Throwable>();
+    final Thread.UncaughtExceptionHandler originalHandler = Thread.currentThread().getUncaughtExceptionHandler();
+    Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      public void uncaughtException(Thread thread, Throwable throwable) {
+        uncaughtExceptions.add(throwable);
+      }
+    });
+    try {
+      watcher.poll();
+      watcher.poll();
+    }
+    finally {
+      Thread.currentThread().setUncaughtExceptionHandler(originalHandler);
+    }
+
+    assertThat(subscriber.changedModules).containsExactly(moduleFile);
+    assertThat(uncaughtExceptions).hasSize(1);
+  }
+
+  @Test
+  public void testAllowsSubscribersToUnwatchModules() throws IOException, ClassNotFoundException {
+    final File otherModuleFile = File.createTempFile("knowledge-module", ".dkm");
+    try {
+      writeModuleFile(otherModuleFile, compile(ExampleDroolsCode.THREE_SIMPLE_RULES));
+      watcher.watch(otherModuleFile);
+      watcher.addSubscriber(new KnowledgeModuleSubscriber() {
+        public void knowledgePackagesChanged(File changedModuleFile, Map<File, Collection<KnowledgePackage>> knowledgePackages) {
+          watcher.unwatch(changedModuleFile);
+        }
+
+        public void reloadFailed(File failedModuleFile, Exception cause) {
+        }
+      });
+      writeModuleFile(compile(ExampleDroolsCode.TWO_MORE_RULES));
+      markModified();
+
+      watcher.poll();
+      watcher.poll();
+
+      assertThat(watcher.getKnowledgePackages().keySet()).containsOnly(otherModuleFile);
+      assertThat(subscriber.changedModules).containsExactly(moduleFile);
+    }
+    finally {
+      otherModuleFile.delete();
+    }
+  }
+
+  private void markModified() {
+    assertThat(moduleFile.setLastModified(moduleFile.lastModified() + 10000)).as("modification time updated").isTrue();
+  }
+
+  private List<String> packageNames(Collection<KnowledgePackage> knowledgePackages) {
+    List<String> packageNames = new ArrayList<String>();
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      packageNames.add(knowledgePackage.getName());
+    }
+    return packageNames;
+  }
+
+  private void writeModuleFile(Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    writeModuleFile(moduleFile, knowledgePackages);
+  }
+
+  private void writeModuleFile(File targetFile, Collection<KnowledgePackage> knowledgePackages) throws IOException {
+    final OutputStream outputStream = new FileOutputStream(targetFile);
+    try {
+      new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(knowledgePackages);
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  private Collection<KnowledgePackage> compile(String drl) {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(drl.getBytes()), ResourceType.DRL);
+    assertThat(knowledgeBuilder.hasErrors()).as("Knowledge Builder's hasErrors Flag").isFalse();
+    return knowledgeBuilder.getKnowledgePackages();
+  }
+
+  private static class RecordingSubscriber implements KnowledgeModuleSubscriber {
+
+    private final List<File> changedModules = new ArrayList<File>();
+    private final List<File> failedModules = new ArrayList<File>();
+
+    public void knowledgePackagesChanged(File moduleFile, Map<File, Collection<KnowledgePackage>> knowledgePackages) {
+      changedModules.add(moduleFile);
+    }
+
+    public void reloadFailed(File moduleFile, Exception cause) {
+      failedModules.add(moduleFile);
+    }
+  }
+}
@@ -18,6 +18,11 @@
 
 package de.lightful.maven.plugins.drools.knowledgeio.internal;
 
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodec;
+import de.lightful.maven.plugins.drools.knowledgeio.CompressionCodecs;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+import de.lightful.maven.plugins.drools.knowledgeio.PackageSerializers;
 import org.drools.builder.KnowledgeBuilder;
 import org.drools.builder.KnowledgeBuilderFactory;
 import org.drools.builder.ResourceType;
@@ -29,9 +34,16 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -87,21 +99,141 @@ public class KnowledgeModuleWriterImplTest {
   public void testWritesActualKnowledgePackages() throws IOException, ClassNotFoundException {
     writer.writeKnowledgePackages(knowledgePackages);
     final byte[] bytes = outputStream.toByteArray();
+    final DataInputStream dataInput = openAfterHeader(bytes);
+    final CompressionCodec compressionCodec = CompressionCodecs.forId(dataInput.readByte());
+    assertThat(dataInput.readByte()).as("module kind").isEqualTo(KnowledgeModule.MODULE_KIND_FULL);
+    assertThat(dataInput.readByte()).as("package serializer").isEqualTo(PackageSerializers.JAVA_ID);
+    assertThat(dataInput.readByte()).as("snapshot kind").isEqualTo(KnowledgeModule.SNAPSHOT_NONE);
+    dataInput.readInt();
 
+    assertThat(dataInput.readByte()).isEqualTo(KnowledgeModule.SECTION_KNOWLEDGE_PACKAGE);
+    assertThat(dataInput.readUTF()).isEqualTo("org.example");
+    final byte[] knowledgePackageData = new byte[(int) dataInput.readLong()];
+    final long checksum = dataInput.readInt() & 0xFFFFFFFFL;
+    dataInput.readFully(knowledgePackageData);
+    assertThat(checksum).as("section checksum").isEqualTo(ModuleChecksums.checksum(knowledgePackageData));
+    final Object knowledgeObject = DroolsStreamUtils.streamIn(compressionCodec.decompress(new ByteArrayInputStream(knowledgePackageData)), getClass().getClassLoader(), false);
+    assertThat(knowledgeObject).isInstanceOf(KnowledgePackage.class);
+    assertThat(((KnowledgePackage) knowledgeObject).getRules()).hasSize(3);
+    assertThat(dataInput.readByte()).isEqualTo(KnowledgeModule.SECTION_END);
+  }
+
+  @Test
+  public void testWritesSectionIndex() throws IOException {
+    writer.writeKnowledgePackages(knowledgePackages);
+    final byte[] bytes = outputStream.toByteArray();
+    final DataInputStream sectionInput = openAfterHeader(bytes);
+    sectionInput.readByte();
+    sectionInput.readByte();
+    sectionInput.readByte();
+    sectionInput.readByte();
+    sectionInput.readInt();
+    sectionInput.readByte();
+    sectionInput.readUTF();
+    final long sectionLength = sectionInput.readLong();
+    final int sectionChecksum = sectionInput.readInt();
+    final int expectedSectionOffset = bytes.length - sectionInput.available();
+
+    final int sizeOfLong = Long.SIZE / 8;
+    final long indexOffset = ByteBuffer.wrap(bytes).getLong(bytes.length - sizeOfLong);
+    final DataInputStream indexInput = new DataInputStream(new ByteArrayInputStream(bytes, (int) indexOffset, bytes.length - (int) indexOffset));
+    assertThat(indexInput.readInt()).as("number of sections").isEqualTo(1);
+    assertThat(indexInput.readUTF()).isEqualTo("org.example");
+    assertThat(indexInput.readLong()).as("section offset").isEqualTo(expectedSectionOffset);
+    assertThat(indexInput.readLong()).as("section length").isEqualTo(sectionLength);
+    assertThat(indexInput.readInt()).as("rule count").isEqualTo(3);
+    assertThat(indexInput.readInt()).as("type declaration count").isEqualTo(0);
+    assertThat(indexInput.readInt()).as("section checksum").isEqualTo(sectionChecksum);
+    assertThat(indexInput.readInt()).as("recorded rules").isEqualTo(3);
+    Set<String> ruleNames = new HashSet<String>();
+    for (int i = 0; i < 3; i++) {
+      ruleNames.add(indexInput.readUTF());
+      assertThat(indexInput.readUTF()).as("agenda group").isEqualTo("MAIN");
+      assertThat(indexInput.readShort()).as("meta attribute count").isEqualTo((short) 0);
+    }
+    assertThat(ruleNames).containsOnly("one", "two", "three");
+    indexInput.readInt();
+    assertThat(indexInput.available()).as("bytes after section index").isEqualTo(sizeOfLong);
+  }
+
+  @Test
+  public void testWritesCompressionCodec() throws IOException {
+    new KnowledgeModuleWriterImpl(outputStream, CompressionCodecs.NONE).writeKnowledgePackages(knowledgePackages);
+    assertThat(openAfterHeader(outputStream.toByteArray()).readByte()).isEqualTo(CompressionCodecs.NONE_ID);
+  }
+
+  @Test
+  public void testReportsWritePhasesToListeners() throws IOException {
+    final RecordingKnowledgeIoListener listener = new RecordingKnowledgeIoListener();
+    writer.setKnowledgeIoListeners(RecordingKnowledgeIoListener.listenersWith(listener));
+    writer.writeKnowledgePackages(knowledgePackages);
+
+    assertThat(listener.getPhases()).containsExactly(
+        KnowledgeIoPhase.WRITE_HEADER, KnowledgeIoPhase.SERIALIZE, KnowledgeIoPhase.DEFLATE, KnowledgeIoPhase.WRITE_SECTION,
+        KnowledgeIoPhase.WRITE_INDEX, KnowledgeIoPhase.WRITE_MODULE);
+    final KnowledgeIoEvent serialization = listener.getEvents(KnowledgeIoPhase.SERIALIZE).get(0);
+    assertThat(serialization.getPackageName()).isEqualTo("org.example");
+    assertThat(serialization.getUncompressedBytes()).isGreaterThan(serialization.getCompressedBytes());
+
+    final KnowledgeIoEvent moduleEvent = listener.getLastEvent();
+    assertThat(moduleEvent.getCompressedBytes()).isEqualTo(outputStream.size());
+    assertThat(moduleEvent.getPackageCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testWritesSameModuleWhenSerializingConcurrently() throws IOException {
+    final KnowledgeBuilder knowledgeBuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.THREE_SIMPLE_RULES.getBytes()), ResourceType.DRL);
+    knowledgeBuilder.add(ResourceFactory.newByteArrayResource(ExampleDroolsCode.TWO_MORE_RULES.getBytes()), ResourceType.DRL);
+    final Collection<KnowledgePackage> twoPackages = knowledgeBuilder.getKnowledgePackages();
+    new KnowledgeModuleWriterImpl(outputStream).writeKnowledgePackages(twoPackages);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final ByteArrayOutputStream concurrentOutputStream = new ByteArrayOutputStream();
+      new KnowledgeModuleWriterImpl(concurrentOutputStream, CompressionCodecs.DEFLATE, PackageSerializers.JAVA, executor).writeKnowledgePackages(twoPackages);
+      assertThat(concurrentOutputStream.toByteArray()).isEqualTo(outputStream.toByteArray());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testWritesPackagesIncrementally() throws IOException, ClassNotFoundException {
+    writer.begin();
+    final int headerLength = outputStream.size();
+    for (KnowledgePackage knowledgePackage : knowledgePackages) {
+      writer.writePackage(knowledgePackage);
+    }
+    assertThat(outputStream.size()).as("bytes written before finishing").isGreaterThan(headerLength);
+    writer.finish();
+
+    final KnowledgeModuleReaderImpl reader = new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray()));
+    assertThat(reader.readManifest().getPackageNames()).containsExactly("org.example");
+    assertThat(new KnowledgeModuleReaderImpl(new ByteArrayInputStream(outputStream.toByteArray())).readKnowledgePackages()).hasSize(1);
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testRejectsPackageBeforeModuleIsBegun() throws IOException {
+    writer.writePackage(knowledgePackages.iterator().next());
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testRejectsBeginningModuleBeforeFinishingTheOneBegunBefore() throws IOException {
+    writer.begin();
+    writer.writeKnowledgePackages(knowledgePackages);
+  }
+
+  /**
+   * @return stream positioned at the compression codec id.
+   */
+  private DataInputStream openAfterHeader(byte[] bytes) {
     final int sizeOfRuntimeVersionLength = Short.SIZE / 8;
     final ByteBuffer buffer = ByteBuffer.wrap(bytes);
     final int fixedSkipLength = KnowledgeModule.FILE_MAGIC.length + KnowledgeModule.CURRENT_FILE_FORMAT.length;
     final int runtimeVersionLength = buffer.getShort(fixedSkipLength);
     final int totalSkipLength = fixedSkipLength + sizeOfRuntimeVersionLength + runtimeVersionLength;
-
-    final byte[] knowledgePackageData = ArrayUtils.slice(bytes, totalSkipLength, bytes.length - totalSkipLength);
-    final Object knowledgeObject = DroolsStreamUtils.streamIn(knowledgePackageData, true);
-    assertThat(knowledgeObject).isInstanceOf(Iterable.class);
-    Iterable<?> knowledgeIterable = (Iterable<?>) knowledgeObject;
-    for (Object shouldBeKnowledgePackage : knowledgeIterable) {
-      assertThat(shouldBeKnowledgePackage).isInstanceOf(KnowledgePackage.class);
-      KnowledgePackage knowledgePackage = (KnowledgePackage) shouldBeKnowledgePackage;
-      assertThat(knowledgePackage.getRules()).hasSize(3);
-    }
+    return new DataInputStream(new ByteArrayInputStream(bytes, totalSkipLength, bytes.length - totalSkipLength));
   }
 }
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2012 Ansgar Konermann
+ *
+ * This file is part of the "Maven 3 Drools Support" Package.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.lightful.maven.plugins.drools.knowledgeio.internal;
+
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoEvent;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoListener;
+import de.lightful.maven.plugins.drools.knowledgeio.KnowledgeIoPhase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RecordingKnowledgeIoListener implements KnowledgeIoListener {
+
+  private final List<KnowledgeIoEvent> events = new ArrayList<KnowledgeIoEvent>();
+
+  public synchronized void phaseCompleted(KnowledgeIoEvent event) {
+    events.add(event);
+  }
+
+  public synchronized List<KnowledgeIoPhase> getPhases() {
+    List<KnowledgeIoPhase> phases = new ArrayList<KnowledgeIoPhase>();
+    for (KnowledgeIoEvent event : events) {
+      phases.add(event.getPhase());
+    }
+    return phases;
+  }
+
+  public synchronized List<KnowledgeIoEvent> getEvents(KnowledgeIoPhase phase) {
+    List<KnowledgeIoEvent> phaseEvents = new ArrayList<KnowledgeIoEvent>();
+    for (KnowledgeIoEvent event : events) {
+      if (event.getPhase() == phase) {
+        phaseEvents.add(event);
+      }
+    }
+    return phaseEvents;
+  }
+
+  public synchronized KnowledgeIoEvent getLastEvent() {
+    return events.get(events.size() - 1);
+  }
+
+  public static KnowledgeIoListeners listenersWith(KnowledgeIoListener listener) {
+    KnowledgeIoListeners listeners = new KnowledgeIoListeners();
+    listeners.add(listener);
+    return listeners;
+  }
+}